@@ -1,7 +1,10 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -17,6 +20,14 @@ public class Album implements Serializable {
     private String genre;
     private int year;
     private List<Song> songs;
+    // set for albums whose songs are only created on demand: the track
+    // titles joined by newlines, their number and the id of the first song
+    private transient String trackTitles;
+    private transient int trackCount;
+    private transient int firstSongId;
+    private transient TrackCache trackCache;
+    // true once published in the shared music store catalog
+    private transient boolean sealed;
 
     /**
      * This method returns the title of the album
@@ -26,13 +37,33 @@ public class Album implements Serializable {
      * @param year year of the album
      */
     public Album(String title, String artist, String genre, int year) {
-        this.title = title;
-        this.artist = artist;
-        this.genre = genre;
+        this.title = StringPool.canonical(title);
+        this.artist = StringPool.canonical(artist);
+        this.genre = StringPool.canonical(genre);
         this.year = year;
         this.songs = new ArrayList<>();
     }
 
+    /**
+     * Constructor for an album that only records its track titles; the
+     * songs are created when they are first needed
+     * @param title title of the album
+     * @param artist artist of the album
+     * @param genre genre of the album
+     * @param year year of the album
+     * @param titles track titles in album order, without line breaks
+     * @param firstSongId id of the first song, reserved for all tracks
+     * @param trackCache cache the songs are kept in
+     */
+    Album(String title, String artist, String genre, int year, List<String> titles,
+          int firstSongId, TrackCache trackCache) {
+        this(title, artist, genre, year);
+        this.trackTitles = String.join("\n", titles);
+        this.trackCount = titles.size();
+        this.firstSongId = firstSongId;
+        this.trackCache = trackCache;
+    }
+
     /**
      * This method returns the title of the album
      * @return title of the album
@@ -70,6 +101,9 @@ public class Album implements Serializable {
      * @return list of songs on the album
      */
     public List<Song> getSongs() {
+        if (trackCache != null) {
+            return trackCache.songsOf(this);
+        }
         return this.songs;
     }
 
@@ -78,9 +112,84 @@ public class Album implements Serializable {
      * @param song new song object
      */
     public void addSong(Song song) {
+        if (trackCache != null) {
+            throw new UnsupportedOperationException("tracks of a lazily loaded album come from its file");
+        }
         this.songs.add(song);
     }
 
+    /**
+     * Get the songs without keeping them: the songs of a lazily loaded
+     * album are only created for the caller unless they are cached already,
+     * so scans over many albums do not push the albums in use out of the cache
+     * @return list of songs on the album
+     */
+    List<Song> scanSongs() {
+        if (trackCache != null) {
+            return trackCache.scan(this);
+        }
+        return this.songs;
+    }
+
+    /**
+     * Get the number of songs without creating them
+     * @return number of songs on the album
+     */
+    int songCount() {
+        return trackCache != null ? trackCount : this.songs.size();
+    }
+
+    /**
+     * Get the song titles without creating the songs
+     * @return song titles in album order
+     */
+    String[] songTitles() {
+        if (trackCache != null) {
+            return trackCount == 0 ? new String[0] : trackTitles.split("\n", -1);
+        }
+        String[] titles = new String[this.songs.size()];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = this.songs.get(i).getTitle();
+        }
+        return titles;
+    }
+
+    /**
+     * Get the id of the first song of an album whose songs are created on
+     * demand; track i gets this id plus i
+     * @return first song id
+     */
+    int firstSongId() {
+        return firstSongId;
+    }
+
+    /**
+     * Restore a serialized album, sharing its metadata strings with every
+     * other loaded album and song
+     * @param in object input stream
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        title = StringPool.canonical(title);
+        artist = StringPool.canonical(artist);
+        genre = StringPool.canonical(genre);
+    }
+
+    /**
+     * Make the song list read-only once the album is published in the
+     * shared music store catalog
+     */
+    void seal() {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        for (Song song : this.songs) {
+            song.share();
+        }
+        this.songs = Collections.unmodifiableList(this.songs);
+    }
+
     /**
      * Get the string representation of the album
      * @return string of the album object
@@ -91,8 +200,8 @@ public class Album implements Serializable {
         res += String.format("%-50s%-30s%-30s%d\n", title, artist, genre, year);
         res += "\nSongs:\n";
         res += String.format("%-50s%-50s%s\n", "Song title", "Song artist", "Song Album");
-        for (int i = 0; i < songs.size(); i++) {
-            res += songs.get(i).toString() + "\n";
+        for (Song song : scanSongs()) {
+            res += song.toString() + "\n";
         }
         return res;
     }
@@ -103,7 +212,7 @@ public class Album implements Serializable {
      */
     public Album copy() {
         Album copy = new Album(title, artist, genre, year);
-        for (Song song : songs) {
+        for (Song song : scanSongs()) {
             copy.addSong(new Song(song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre()));
         }
         return copy;
@@ -0,0 +1,55 @@
+package model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * This class is an auto-generated playlist whose songs are computed from
+ * the library each time they are read, so it never has to be kept in sync
+ * and is not saved with the user data. It cannot be edited
+ */
+class AutoPlayList extends PlayList {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Supplier<List<Song>> songs;
+
+    /**
+     * Constructor
+     * @param listName playlist name
+     * @param songs computes the current songs of the playlist
+     */
+    AutoPlayList(String listName, Supplier<List<Song>> songs) {
+        super(listName, true);
+        this.songs = songs;
+    }
+
+    /**
+     * Get the current songs of the play list
+     * @return read-only song list
+     */
+    @Override
+    public List<Song> getSongs() {
+        return Collections.unmodifiableList(songs.get());
+    }
+
+    @Override
+    public boolean containsSong(String songName, String artist) {
+        for (Song song : songs.get()) {
+            if (song.getTitle().equals(songName) && song.getArtist().equals(artist)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean addSong(Song song) {
+        return false;
+    }
+
+    @Override
+    public boolean removeSong(String songName, String artist) {
+        return false;
+    }
+}
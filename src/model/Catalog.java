@@ -0,0 +1,447 @@
+package model;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+
+/**
+ * This class is one immutable version of the music store catalog: the
+ * albums in load order together with the indexes built over them.
+ * A version is fully built before the music store publishes it and is never
+ * changed afterwards, so any number of threads can read it without locking
+ */
+final class Catalog {
+
+    private final List<Album> albums;
+    // album file of every album, in the same order
+    private final List<Path> files;
+    private final SegmentedMap<Path, Album> albumByFile;
+    // stamp of the album list and every album file, taken before the read
+    // their albums came from
+    private final SegmentedMap<Path, CatalogSnapshot.Stamp> stamps;
+    // position of every album in albums; albums have identity equality
+    private final SegmentedMap<Album, Integer> positions;
+    // songOffsets[i] is the number of songs before album i
+    private final int[] songOffsets;
+    private final CatalogIndex index;
+    private final CatalogShards shards;
+    private final PrefixIndex songTitlePrefixes;
+    private final PrefixIndex albumTitlePrefixes;
+    private final PrefixIndex artistPrefixes;
+    private final FuzzyIndex songTitleFuzzy;
+    private final FuzzyIndex artistFuzzy;
+    private final List<String> loadErrors;
+    private final boolean fromSnapshot;
+    private final boolean lazyTracks;
+
+    /**
+     * Build a catalog version
+     * @param albums albums in load order
+     * @param files album file of every album, in the same order
+     * @param stamps stamp of the album list and every album file
+     * @param loadErrors errors reported while loading the albums
+     * @param fromSnapshot true if the albums came from the binary snapshot
+     * @param lazyTracks true if the albums create their songs on demand;
+     *                   songs are then only indexed by title, by album
+     * @param shardCount number of shards scans are split into
+     */
+    Catalog(List<Album> albums, List<Path> files, Map<Path, CatalogSnapshot.Stamp> stamps,
+            List<String> loadErrors, boolean fromSnapshot, boolean lazyTracks, int shardCount) {
+        this(albums, files, stamps, loadErrors, fromSnapshot, lazyTracks, shardCount,
+                buildIndex(albums, !lazyTracks));
+    }
+
+    private Catalog(List<Album> albums, List<Path> files, Map<Path, CatalogSnapshot.Stamp> stamps,
+                    List<String> loadErrors, boolean fromSnapshot, boolean lazyTracks,
+                    int shardCount, CatalogIndex index) {
+        this.index = index;
+        Map<String, Integer> songTitles = new HashMap<>();
+        Map<String, Integer> albumTitles = new HashMap<>();
+        Map<String, Integer> artists = new HashMap<>();
+        countTerms(albums, 1, lazyTracks, songTitles, albumTitles, artists);
+        this.songTitlePrefixes = new PrefixIndex(songTitles);
+        this.albumTitlePrefixes = new PrefixIndex(albumTitles);
+        this.artistPrefixes = new PrefixIndex(artists);
+        this.songTitleFuzzy = new FuzzyIndex(songTitles.keySet());
+        this.artistFuzzy = new FuzzyIndex(artists.keySet());
+        this.albums = Collections.unmodifiableList(new ArrayList<>(albums));
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.shards = new CatalogShards(this.albums, shardCount);
+        this.albumByFile = new SegmentedMap<>();
+        this.stamps = new SegmentedMap<>();
+        stamps.forEach(this.stamps::put);
+        this.positions = new SegmentedMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            albumByFile.put(files.get(i), albums.get(i));
+            positions.put(albums.get(i), i);
+        }
+        this.loadErrors = Collections.unmodifiableList(new ArrayList<>(loadErrors));
+        this.fromSnapshot = fromSnapshot;
+        this.lazyTracks = lazyTracks;
+        this.songOffsets = new int[albums.size() + 1];
+        for (int i = 0; i < albums.size(); i++) {
+            songOffsets[i + 1] = songOffsets[i] + albums.get(i).songCount();
+        }
+    }
+
+    /**
+     * Derive a catalog version from its base, patching every index with
+     * only the albums that were removed or added
+     * @param base version the albums changed from
+     * @param albums albums in load order
+     * @param files album file of every album, in the same order
+     * @param stamps stamp of every file read for this version
+     * @param loadErrors errors reported while loading the albums
+     * @param removed albums of the base that are gone, in base order
+     * @param removedFiles album file of every removed album
+     * @param added albums that are new, in load order
+     * @param positions position of every album in the album list
+     */
+    private Catalog(Catalog base, List<Album> albums, List<Path> files,
+                    Map<Path, CatalogSnapshot.Stamp> stamps, List<String> loadErrors,
+                    List<Album> removed, List<Path> removedFiles, List<Album> added,
+                    SegmentedMap<Album, Integer> positions) {
+        this.positions = positions;
+        this.lazyTracks = base.lazyTracks;
+        this.fromSnapshot = false;
+        this.albums = Collections.unmodifiableList(new ArrayList<>(albums));
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.loadErrors = Collections.unmodifiableList(new ArrayList<>(loadErrors));
+        this.index = base.index.withChanges(removed, added, positions::get);
+
+        Map<String, Integer> songTitles = new HashMap<>();
+        Map<String, Integer> albumTitles = new HashMap<>();
+        Map<String, Integer> artists = new HashMap<>();
+        countTerms(removed, -1, lazyTracks, songTitles, albumTitles, artists);
+        countTerms(added, 1, lazyTracks, songTitles, albumTitles, artists);
+        this.songTitlePrefixes = base.songTitlePrefixes.withChanges(songTitles);
+        this.albumTitlePrefixes = base.albumTitlePrefixes.withChanges(albumTitles);
+        this.artistPrefixes = base.artistPrefixes.withChanges(artists);
+        this.songTitleFuzzy = patchFuzzy(base.songTitleFuzzy, base.songTitlePrefixes,
+                songTitlePrefixes, songTitles.keySet());
+        this.artistFuzzy = patchFuzzy(base.artistFuzzy, base.artistPrefixes,
+                artistPrefixes, artists.keySet());
+
+        // every other position keeps its album when the count did not change
+        boolean inPlace = albums.size() == base.albums.size();
+        this.shards = base.shards.withAlbums(this.albums, inPlace ? added : null, positions::get);
+        this.albumByFile = new SegmentedMap<>(base.albumByFile);
+        for (int i = 0; i < removed.size(); i++) {
+            if (albumByFile.get(removedFiles.get(i)) == removed.get(i)) {
+                albumByFile.remove(removedFiles.get(i));
+            }
+        }
+        for (Album album : added) {
+            albumByFile.put(files.get(positions.get(album)), album);
+        }
+        // kept albums keep the stamps of the reads they came from
+        this.stamps = new SegmentedMap<>(base.stamps);
+        stamps.forEach(this.stamps::put);
+
+        if (inPlace) {
+            // offsets only shift by the song count changes before them
+            int[] shift = new int[albums.size() + 1];
+            for (Album album : added) {
+                int i = positions.get(album);
+                shift[i + 1] += album.songCount() - (base.songOffsets[i + 1] - base.songOffsets[i]);
+            }
+            this.songOffsets = new int[albums.size() + 1];
+            int delta = 0;
+            for (int i = 1; i <= albums.size(); i++) {
+                delta += shift[i];
+                songOffsets[i] = base.songOffsets[i] + delta;
+            }
+        } else {
+            this.songOffsets = new int[albums.size() + 1];
+            for (int i = 0; i < albums.size(); i++) {
+                songOffsets[i + 1] = songOffsets[i] + albums.get(i).songCount();
+            }
+        }
+    }
+
+    // add the popularity of the terms of the albums, times sign: the number
+    // of catalog songs carrying a term. Lazily loaded albums count their
+    // track titles without creating their songs
+    private static void countTerms(List<Album> albums, int sign, boolean lazyTracks,
+                                   Map<String, Integer> songTitles,
+                                   Map<String, Integer> albumTitles,
+                                   Map<String, Integer> artists) {
+        for (Album album : albums) {
+            if (lazyTracks) {
+                String[] titles = album.songTitles();
+                albumTitles.merge(album.getTitle(), sign * titles.length, Integer::sum);
+                for (String title : titles) {
+                    songTitles.merge(title, sign, Integer::sum);
+                    artists.merge(album.getArtist(), sign, Integer::sum);
+                }
+                continue;
+            }
+            albumTitles.merge(album.getTitle(), sign * album.getSongs().size(), Integer::sum);
+            for (Song song : album.getSongs()) {
+                songTitles.merge(song.getTitle(), sign, Integer::sum);
+                artists.merge(song.getArtist(), sign, Integer::sum);
+            }
+        }
+    }
+
+    // drop the terms whose popularity fell to 0 and add the ones that rose
+    // from 0
+    private static FuzzyIndex patchFuzzy(FuzzyIndex fuzzy, PrefixIndex before, PrefixIndex after,
+                                         Set<String> terms) {
+        List<String> gone = new ArrayList<>();
+        List<String> fresh = new ArrayList<>();
+        for (String term : terms) {
+            boolean was = before.weightOf(term) > 0;
+            boolean is = after.weightOf(term) > 0;
+            if (was && !is) {
+                gone.add(term);
+            } else if (!was && is) {
+                fresh.add(term);
+            }
+        }
+        return fuzzy.withChanges(gone, fresh);
+    }
+
+    private static CatalogIndex buildIndex(List<Album> albums, boolean indexTracks) {
+        CatalogIndex index = new CatalogIndex(indexTracks);
+        for (Album album : albums) {
+            album.seal();
+            index.addAlbum(album);
+        }
+        return index;
+    }
+
+    /**
+     * Build the next catalog version from this one. Albums kept from this
+     * version are reused as they are, and every index is patched with only
+     * the albums that were removed or added instead of being rebuilt, with
+     * the same results as a version built from scratch over the albums.
+     * This version is unchanged
+     * @param albums albums of the next version in load order
+     * @param files album file of every album, in the same order
+     * @param stamps stamp of every file read for the next version
+     * @param loadErrors errors reported while loading the changed files
+     * @return the next catalog version
+     */
+    Catalog update(List<Album> albums, List<Path> files, Map<Path, CatalogSnapshot.Stamp> stamps,
+                   List<String> loadErrors) {
+        List<Album> removed = new ArrayList<>();
+        List<Path> removedFiles = new ArrayList<>();
+        List<Album> added = new ArrayList<>();
+        SegmentedMap<Album, Integer> next;
+        if (albums.size() == this.albums.size()) {
+            // albums replaced in place, as when album files change: compare
+            // position by position; an album that moved is removed and
+            // added again
+            List<Integer> addedAt = new ArrayList<>();
+            for (int i = 0; i < albums.size(); i++) {
+                if (albums.get(i) != this.albums.get(i)) {
+                    removed.add(this.albums.get(i));
+                    removedFiles.add(this.files.get(i));
+                    added.add(albums.get(i));
+                    addedAt.add(i);
+                }
+            }
+            next = new SegmentedMap<>(positions);
+            for (Album album : removed) {
+                next.remove(album);
+            }
+            for (int i = 0; i < added.size(); i++) {
+                next.put(added.get(i), addedAt.get(i));
+            }
+        } else {
+            // kept albums out of their old order moved, and are indexed
+            // again like new ones
+            Set<Album> staying = inOrder(albums, positions);
+            for (int i = 0; i < this.albums.size(); i++) {
+                if (!staying.contains(this.albums.get(i))) {
+                    removed.add(this.albums.get(i));
+                    removedFiles.add(this.files.get(i));
+                }
+            }
+            next = new SegmentedMap<>();
+            for (int i = 0; i < albums.size(); i++) {
+                if (!staying.contains(albums.get(i))) {
+                    added.add(albums.get(i));
+                }
+                next.put(albums.get(i), i);
+            }
+        }
+        for (Album album : added) {
+            album.seal();
+        }
+        return new Catalog(this, albums, files, stamps, loadErrors, removed, removedFiles, added, next);
+    }
+
+    // the largest set of albums kept from this version whose order did not
+    // change: the longest increasing run of their old positions
+    private static Set<Album> inOrder(List<Album> albums, SegmentedMap<Album, Integer> before) {
+        List<Album> kept = new ArrayList<>();
+        List<Integer> old = new ArrayList<>();
+        for (Album album : albums) {
+            Integer position = before.get(album);
+            if (position != null) {
+                kept.add(album);
+                old.add(position);
+            }
+        }
+        int n = kept.size();
+        // tails[k] is the kept index ending the best run of length k + 1
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int lo = 0;
+            int hi = length;
+            // nothing moved as long as every album extends the longest run
+            if (length > 0 && old.get(tails[length - 1]) < old.get(i)) {
+                lo = length;
+            }
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (old.get(tails[mid]) < old.get(i)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            length = Math.max(length, lo + 1);
+        }
+        Set<Album> staying = Collections.newSetFromMap(new IdentityHashMap<>(length));
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            staying.add(kept.get(i));
+        }
+        return staying;
+    }
+
+    /**
+     * Create a spliterator over every song of this version
+     * @return song spliterator
+     */
+    Spliterator<Song> songSpliterator() {
+        return new SongSpliterator(albums, songOffsets, 0, albums.size());
+    }
+
+    /**
+     * Get the songs with the given title
+     * @param title song title
+     * @return new list of matching songs in album order
+     */
+    List<Song> songsByTitle(String title) {
+        return index.songsByTitle(title);
+    }
+
+    /**
+     * Get the album loaded from a file
+     * @param file album file
+     * @return the album, or null if no album of this version came from the file
+     */
+    Album getAlbumForFile(Path file) {
+        return albumByFile.get(file);
+    }
+
+    /**
+     * Get the album file of every album
+     * @return unmodifiable file list in album order
+     */
+    List<Path> getFiles() {
+        return files;
+    }
+
+    /**
+     * Get the stamp of a file as it was when read for this version
+     * @param file album list or album file
+     * @return the stamp, or null if the file was never read
+     */
+    CatalogSnapshot.Stamp getStamp(Path file) {
+        return stamps.get(file);
+    }
+
+    /**
+     * Get the albums of this version
+     * @return unmodifiable album list
+     */
+    List<Album> getAlbums() {
+        return albums;
+    }
+
+    /**
+     * Get the search index of this version
+     * @return catalog index
+     */
+    CatalogIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the shards of this version, for queries that scan every album
+     * @return catalog shards
+     */
+    CatalogShards getShards() {
+        return shards;
+    }
+
+    /**
+     * Get the prefix index over song titles
+     * @return song title prefix index
+     */
+    PrefixIndex getSongTitlePrefixes() {
+        return songTitlePrefixes;
+    }
+
+    /**
+     * Get the prefix index over album titles
+     * @return album title prefix index
+     */
+    PrefixIndex getAlbumTitlePrefixes() {
+        return albumTitlePrefixes;
+    }
+
+    /**
+     * Get the prefix index over artist names
+     * @return artist prefix index
+     */
+    PrefixIndex getArtistPrefixes() {
+        return artistPrefixes;
+    }
+
+    /**
+     * Get the typo-tolerant index over song titles
+     * @return song title fuzzy index
+     */
+    FuzzyIndex getSongTitleFuzzy() {
+        return songTitleFuzzy;
+    }
+
+    /**
+     * Get the typo-tolerant index over artist names
+     * @return artist fuzzy index
+     */
+    FuzzyIndex getArtistFuzzy() {
+        return artistFuzzy;
+    }
+
+    /**
+     * Get the errors reported while loading this version
+     * @return unmodifiable list of error messages
+     */
+    List<String> getLoadErrors() {
+        return loadErrors;
+    }
+
+    /**
+     * Check if this version was read from the binary snapshot
+     * @return true if read from the snapshot, false if parsed from text
+     */
+    boolean isFromSnapshot() {
+        return fromSnapshot;
+    }
+}
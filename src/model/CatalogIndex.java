@@ -0,0 +1,527 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * This class keeps hash indexes over the albums of the music store so that
+ * exact title and artist searches do not need to scan the whole catalog.
+ * An index is filled while its catalog version is built and only read
+ * afterwards; later versions are derived with withChanges()
+ */
+class CatalogIndex {
+
+    private static final int SONG_SEGMENT_BITS = 12;
+    private static final int GENRE_SEGMENT_BITS = 4;
+
+    private SegmentedMap<String, List<Song>> songsByTitle;
+    private SegmentedMap<String, List<Song>> songsByArtist;
+    private SegmentedMap<String, List<Album>> albumsByTitle;
+    private SegmentedMap<String, List<Album>> albumsByArtist;
+    // composite key lookups for finding the album of a song; a song's own
+    // equality is its (title, artist, album) key
+    private SegmentedMap<Song, Album> albumBySong;
+    private SegmentedMap<Key, Album> albumByTitleArtist;
+    private SegmentedMap<Key, Album> albumBySongTitleArtist;
+    // case-folded genre -> albums and songs, plus genres in first-seen spelling
+    private SegmentedMap<String, List<Album>> albumsByGenre;
+    private SegmentedMap<String, List<Song>> songsByGenre;
+    private List<String> genres;
+    // false for lazily loaded catalogs, whose songs are not created up
+    // front; only their titles are indexed then, by album
+    private boolean indexTracks;
+    private SegmentedMap<String, List<Album>> albumsBySongTitle;
+    // lists this index may change in place; null while building from
+    // scratch, when every list belongs to this index
+    private Set<List<?>> owned;
+    // catalog position of every album while withChanges() patches the
+    // index; null while building from scratch, when albums come in order
+    private ToIntFunction<Album> positionOf;
+
+    /**
+     * Constructor
+     * @param indexTracks true to index every song, false to index albums only
+     */
+    CatalogIndex(boolean indexTracks) {
+        this.indexTracks = indexTracks;
+        songsByTitle = new SegmentedMap<>();
+        songsByArtist = new SegmentedMap<>();
+        albumsByTitle = new SegmentedMap<>();
+        albumsByArtist = new SegmentedMap<>();
+        // one key per song, so smaller segments keep patches cheap
+        albumBySong = new SegmentedMap<>(SONG_SEGMENT_BITS);
+        albumByTitleArtist = new SegmentedMap<>();
+        albumBySongTitleArtist = new SegmentedMap<>(SONG_SEGMENT_BITS);
+        albumsByGenre = new SegmentedMap<>(GENRE_SEGMENT_BITS);
+        songsByGenre = new SegmentedMap<>(GENRE_SEGMENT_BITS);
+        albumsBySongTitle = new SegmentedMap<>();
+        genres = new ArrayList<>();
+    }
+
+    /**
+     * Copy constructor: the maps and their value lists are shared with the
+     * base index until this index needs to change them
+     * @param base index to copy
+     */
+    private CatalogIndex(CatalogIndex base) {
+        songsByTitle = new SegmentedMap<>(base.songsByTitle);
+        songsByArtist = new SegmentedMap<>(base.songsByArtist);
+        albumsByTitle = new SegmentedMap<>(base.albumsByTitle);
+        albumsByArtist = new SegmentedMap<>(base.albumsByArtist);
+        albumBySong = new SegmentedMap<>(base.albumBySong);
+        albumByTitleArtist = new SegmentedMap<>(base.albumByTitleArtist);
+        albumBySongTitleArtist = new SegmentedMap<>(base.albumBySongTitleArtist);
+        albumsByGenre = new SegmentedMap<>(base.albumsByGenre);
+        songsByGenre = new SegmentedMap<>(base.songsByGenre);
+        albumsBySongTitle = new SegmentedMap<>(base.albumsBySongTitle);
+        genres = base.genres;
+        indexTracks = base.indexTracks;
+        owned = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Build a new index from this one with some albums removed and others
+     * added, touching only the keys of those albums. Added albums are
+     * placed at their catalog position in every list, and composite key
+     * lookups keep pointing at the first matching album of the catalog, so
+     * the result is the same as an index built from scratch over the new
+     * albums. This index is unchanged
+     * @param removed albums to remove
+     * @param added albums to add
+     * @param positionOf catalog position of every album of the new version
+     * @return patched index
+     */
+    CatalogIndex withChanges(Collection<Album> removed, Collection<Album> added,
+                             ToIntFunction<Album> positionOf) {
+        CatalogIndex next = new CatalogIndex(this);
+        next.positionOf = positionOf;
+        for (Album album : removed) {
+            next.removeAlbum(album);
+        }
+        for (Album album : added) {
+            next.addAlbum(album);
+        }
+        next.orderGenres(added);
+        next.positionOf = null;
+        next.owned = null;
+        return next;
+    }
+
+    /**
+     * Add the album and all of its songs to the index. While building from
+     * scratch albums must be added in catalog order
+     * @param album input album object
+     */
+    void addAlbum(Album album) {
+        ToIntFunction<Song> songPosition = positionOf == null ? null : this::positionOfSong;
+        int position = positionOf == null ? 0 : positionOf.applyAsInt(album);
+        put(albumsByTitle, album.getTitle(), album, position, positionOf);
+        put(albumsByArtist, album.getArtist(), album, position, positionOf);
+        // the first album of the catalog wins, like a scan in catalog order
+        putFirst(albumByTitleArtist, new Key(album.getTitle(), album.getArtist()), album);
+        String genre = foldGenre(album.getGenre());
+        if (positionOf == null && !albumsByGenre.containsKey(genre)) {
+            genres.add(album.getGenre());
+        }
+        put(albumsByGenre, genre, album, position, positionOf);
+        if (!indexTracks) {
+            for (String title : distinctTitles(album)) {
+                put(albumsBySongTitle, title, album, position, positionOf);
+            }
+            return;
+        }
+        for (Song song : album.getSongs()) {
+            put(songsByGenre, genre, song, position, songPosition);
+            put(songsByTitle, song.getTitle(), song, position, songPosition);
+            put(songsByArtist, song.getArtist(), song, position, songPosition);
+            putFirst(albumBySong, song, album);
+            putFirst(albumBySongTitleArtist, new Key(song.getTitle(), song.getArtist()), album);
+        }
+    }
+
+    /**
+     * Remove the album and all of its songs from the index. Composite key
+     * lookups that pointed at the album fall back to another matching album
+     * @param album input album object
+     */
+    private void removeAlbum(Album album) {
+        remove(albumsByTitle, album.getTitle(), album);
+        remove(albumsByArtist, album.getArtist(), album);
+        String genre = foldGenre(album.getGenre());
+        remove(albumsByGenre, genre, album);
+        if (!albumsByGenre.containsKey(genre)) {
+            songsByGenre.remove(genre);
+        } else if (indexTracks && !album.getSongs().isEmpty()) {
+            // the songs of an album are next to each other in its genre,
+            // which may hold a large part of the catalog
+            List<Song> songs = album.getSongs();
+            List<Song> values = writable(songsByGenre, genre);
+            int from = 0;
+            while (from < values.size() && values.get(from) != songs.get(0)) {
+                from++;
+            }
+            int to = from;
+            while (to < values.size() && to - from < songs.size() && values.get(to) == songs.get(to - from)) {
+                to++;
+            }
+            values.subList(from, to).clear();
+        }
+
+        Key albumKey = new Key(album.getTitle(), album.getArtist());
+        if (albumByTitleArtist.get(albumKey) == album) {
+            albumByTitleArtist.remove(albumKey);
+            for (Album other : albumsByTitle.getOrDefault(album.getTitle(), Collections.emptyList())) {
+                if (other.getArtist().equals(album.getArtist())) {
+                    albumByTitleArtist.put(albumKey, other);
+                    break;
+                }
+            }
+        }
+        if (!indexTracks) {
+            for (String title : distinctTitles(album)) {
+                remove(albumsBySongTitle, title, album);
+            }
+            return;
+        }
+        for (Song song : album.getSongs()) {
+            remove(songsByTitle, song.getTitle(), song);
+            remove(songsByArtist, song.getArtist(), song);
+            if (albumBySong.get(song) == album) {
+                albumBySong.remove(song);
+                for (Album other : albumsByTitle.getOrDefault(song.getAlbum(), Collections.emptyList())) {
+                    if (other.getArtist().equals(song.getArtist()) && other.getSongs().contains(song)) {
+                        albumBySong.put(song, other);
+                        break;
+                    }
+                }
+            }
+            Key songKey = new Key(song.getTitle(), song.getArtist());
+            if (albumBySongTitleArtist.get(songKey) == album) {
+                albumBySongTitleArtist.remove(songKey);
+                for (Album other : albumsByArtist.getOrDefault(song.getArtist(), Collections.emptyList())) {
+                    if (containsTitle(other, song.getTitle())) {
+                        albumBySongTitleArtist.put(songKey, other);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // list the genres again in the spelling and order of their first
+    // album, as a build from scratch would
+    private void orderGenres(Collection<Album> added) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String genre : genres) {
+            keys.add(foldGenre(genre));
+        }
+        for (Album album : added) {
+            keys.add(foldGenre(album.getGenre()));
+        }
+        List<Album> firsts = new ArrayList<>();
+        for (String key : keys) {
+            List<Album> albums = albumsByGenre.get(key);
+            if (albums != null) {
+                firsts.add(albums.get(0));
+            }
+        }
+        firsts.sort(Comparator.comparingInt(positionOf));
+        genres = new ArrayList<>();
+        for (Album album : firsts) {
+            genres.add(album.getGenre());
+        }
+    }
+
+    // catalog position of the album holding this very song instance
+    private int positionOfSong(Song song) {
+        List<Album> byTitle = albumsByTitle.getOrDefault(song.getAlbum(), Collections.emptyList());
+        List<Album> byArtist = albumsByArtist.getOrDefault(song.getArtist(), Collections.emptyList());
+        for (Album album : byTitle.size() <= byArtist.size() ? byTitle : byArtist) {
+            if (album.getTitle().equals(song.getAlbum()) && album.getArtist().equals(song.getArtist())) {
+                for (Song other : album.getSongs()) {
+                    if (other == song) {
+                        return positionOf.applyAsInt(album);
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("Song is not on an indexed album: " + song.getTitle());
+    }
+
+    // map the key to the album unless an album earlier in the catalog has it
+    private <K> void putFirst(SegmentedMap<K, Album> map, K key, Album album) {
+        if (positionOf == null) {
+            map.putIfAbsent(key, album);
+            return;
+        }
+        Album current = map.get(key);
+        if (current == null || positionOf.applyAsInt(album) < positionOf.applyAsInt(current)) {
+            map.put(key, album);
+        }
+    }
+
+    private static Set<String> distinctTitles(Album album) {
+        return new LinkedHashSet<>(Arrays.asList(album.songTitles()));
+    }
+
+    private static boolean containsTitle(Album album, String title) {
+        for (Song song : album.getSongs()) {
+            if (song.getTitle().equals(title)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if every song is indexed
+     * @return true if songs are indexed, false if only albums are
+     */
+    boolean indexesTracks() {
+        return indexTracks;
+    }
+
+    /**
+     * Get the songs with the given title. Without a song index only the
+     * albums holding the title are looked at
+     * @param title song title
+     * @return new list of matching songs
+     */
+    List<Song> songsByTitle(String title) {
+        if (!indexTracks) {
+            List<Song> songs = new ArrayList<>();
+            for (Album album : albumsBySongTitle.getOrDefault(title, Collections.emptyList())) {
+                for (Song song : album.scanSongs()) {
+                    if (song.getTitle().equals(title)) {
+                        songs.add(song);
+                    }
+                }
+            }
+            return songs;
+        }
+        return get(songsByTitle, title);
+    }
+
+    /**
+     * Get the songs by the given artist
+     * @param artist song artist
+     * @return new list of matching songs
+     */
+    List<Song> songsByArtist(String artist) {
+        if (!indexTracks) {
+            return songsOf(albumsByArtist.get(artist));
+        }
+        return get(songsByArtist, artist);
+    }
+
+    /**
+     * Get the albums with the given title
+     * @param title album title
+     * @return new list of matching albums
+     */
+    List<Album> albumsByTitle(String title) {
+        return get(albumsByTitle, title);
+    }
+
+    /**
+     * Get the albums by the given artist
+     * @param artist album artist
+     * @return new list of matching albums
+     */
+    List<Album> albumsByArtist(String artist) {
+        return get(albumsByArtist, artist);
+    }
+
+    /**
+     * Get the distinct genres in the order they were first loaded
+     * @return unmodifiable genre list
+     */
+    List<String> genres() {
+        return Collections.unmodifiableList(genres);
+    }
+
+    /**
+     * Get the songs of a genre, ignoring case
+     * @param genre genre name
+     * @return unmodifiable list of matching songs
+     */
+    List<Song> songsByGenre(String genre) {
+        if (!indexTracks) {
+            return Collections.unmodifiableList(songsOf(albumsByGenre.get(foldGenre(genre))));
+        }
+        return readOnly(songsByGenre.get(foldGenre(genre)));
+    }
+
+    /**
+     * Get the number of songs of a genre, ignoring case, without creating
+     * the songs of lazily loaded albums
+     * @param genre genre name
+     * @return number of songs
+     */
+    int songCountByGenre(String genre) {
+        if (!indexTracks) {
+            int count = 0;
+            for (Album album : albumsByGenre.getOrDefault(foldGenre(genre), Collections.emptyList())) {
+                count += album.songCount();
+            }
+            return count;
+        }
+        List<Song> songs = songsByGenre.get(foldGenre(genre));
+        return songs == null ? 0 : songs.size();
+    }
+
+    /**
+     * Get the albums of a genre, ignoring case
+     * @param genre genre name
+     * @return unmodifiable list of matching albums
+     */
+    List<Album> albumsByGenre(String genre) {
+        return readOnly(albumsByGenre.get(foldGenre(genre)));
+    }
+
+    /**
+     * Find the album of a song: first by its (title, artist, album) key,
+     * then by album title and artist, then by song title and artist
+     * @param song input song
+     * @return the album, or null if none matches
+     */
+    Album albumForSong(Song song) {
+        if (!indexTracks) {
+            Album album = albumByTitleArtist.get(new Key(song.getAlbum(), song.getArtist()));
+            if (album != null) {
+                return album;
+            }
+            for (Album other : albumsBySongTitle.getOrDefault(song.getTitle(), Collections.emptyList())) {
+                if (other.getArtist().equals(song.getArtist())) {
+                    return other;
+                }
+            }
+            return null;
+        }
+        Album album = albumBySong.get(song);
+        if (album == null) {
+            album = albumByTitleArtist.get(new Key(song.getAlbum(), song.getArtist()));
+        }
+        if (album == null) {
+            album = albumBySongTitleArtist.get(new Key(song.getTitle(), song.getArtist()));
+        }
+        return album;
+    }
+
+    private static List<Song> songsOf(List<Album> albums) {
+        List<Song> songs = new ArrayList<>();
+        if (albums != null) {
+            for (Album album : albums) {
+                songs.addAll(album.scanSongs());
+            }
+        }
+        return songs;
+    }
+
+    private static String foldGenre(String genre) {
+        return genre == null ? "" : genre.toLowerCase(Locale.ROOT);
+    }
+
+    private static <T> List<T> readOnly(List<T> values) {
+        return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+    }
+
+    // add a value to the list of a key, after every value from an album at
+    // or before its catalog position; appended when building from scratch
+    private <T> void put(SegmentedMap<String, List<T>> map, String key, T value,
+                         int position, ToIntFunction<T> positionOfValue) {
+        List<T> values = writable(map, key);
+        if (positionOfValue == null) {
+            values.add(value);
+            return;
+        }
+        int lo = 0;
+        int hi = values.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (positionOfValue.applyAsInt(values.get(mid)) <= position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        values.add(lo, value);
+    }
+
+    private <T> void remove(SegmentedMap<String, List<T>> map, String key, T value) {
+        if (!map.containsKey(key)) {
+            return;
+        }
+        List<T> values = writable(map, key);
+        // remove by identity so equal songs from other albums stay indexed
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) == value) {
+                values.remove(i);
+                break;
+            }
+        }
+        if (values.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    // get the list of a key that this index may change, copying a list
+    // still shared with the base index first
+    private <T> List<T> writable(SegmentedMap<String, List<T>> map, String key) {
+        List<T> values = map.get(key);
+        if (values == null) {
+            values = new ArrayList<>();
+            map.put(key, values);
+            if (owned != null) {
+                owned.add(values);
+            }
+        } else if (owned != null && !owned.contains(values)) {
+            values = new ArrayList<>(values);
+            map.put(key, values);
+            owned.add(values);
+        }
+        return values;
+    }
+
+    private static <T> List<T> get(SegmentedMap<String, List<T>> map, String key) {
+        List<T> values = map.get(key);
+        // return a copy so callers cannot change the index
+        return values == null ? new ArrayList<>() : new ArrayList<>(values);
+    }
+
+    /**
+     * Hash key made of a title and an artist
+     */
+    private static final class Key {
+        private final String title;
+        private final String artist;
+
+        Key(String title, String artist) {
+            this.title = title;
+            this.artist = artist;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(title, key.title) && Objects.equals(artist, key.artist);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(title, artist);
+        }
+    }
+}
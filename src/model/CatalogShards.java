@@ -0,0 +1,162 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * This class partitions the albums of a catalog version into shards by the
+ * hash of their artist, so queries that have to look at every album can
+ * run one shard per core.
+ *
+ * A scan visits all shards in parallel on the common fork-join pool. Each
+ * shard stores the matches of an album in that album's slot, and the slots
+ * are then read in catalog order, so the result is the same as a
+ * sequential scan no matter how many shards there are
+ */
+class CatalogShards {
+
+    private final List<Album> albums;
+    // shards[s] holds the catalog positions of the albums of shard s, ascending
+    private final int[][] shards;
+
+    /**
+     * Partition the albums
+     * @param albums albums in catalog order
+     * @param shardCount number of shards, at least 1
+     */
+    CatalogShards(List<Album> albums, int shardCount) {
+        this.albums = albums;
+        int n = Math.max(1, shardCount);
+        int[] sizes = new int[n];
+        int[] shardOf = new int[albums.size()];
+        for (int i = 0; i < albums.size(); i++) {
+            shardOf[i] = shardOf(albums.get(i).getArtist(), n);
+            sizes[shardOf[i]]++;
+        }
+        shards = new int[n][];
+        for (int s = 0; s < n; s++) {
+            shards[s] = new int[sizes[s]];
+        }
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < albums.size(); i++) {
+            int s = shardOf[i];
+            shards[s][sizes[s]++] = i;
+        }
+    }
+
+    private CatalogShards(List<Album> albums, int[][] shards) {
+        this.albums = albums;
+        this.shards = shards;
+    }
+
+    /**
+     * Partition the albums of the next catalog version. When no album moved
+     * to another shard, the partition of this version is reused
+     * @param next albums of the next version in catalog order
+     * @param changed albums of the next version at positions whose album
+     *                changed; every other position holds the same album
+     *                as in this version, or null if positions shifted
+     * @param positionOf position of an album in the next version
+     * @return shards of the next version
+     */
+    CatalogShards withAlbums(List<Album> next, Collection<Album> changed, ToIntFunction<Album> positionOf) {
+        int n = shards.length;
+        if (changed == null || next.size() != albums.size()) {
+            return new CatalogShards(next, n);
+        }
+        for (Album album : changed) {
+            String before = albums.get(positionOf.applyAsInt(album)).getArtist();
+            if (shardOf(album.getArtist(), n) != shardOf(before, n)) {
+                return new CatalogShards(next, n);
+            }
+        }
+        return new CatalogShards(next, shards);
+    }
+
+    /**
+     * Get the shard of an artist; all albums of an artist share a shard
+     * @param artist album artist
+     * @param shardCount number of shards
+     * @return shard number in [0, shardCount)
+     */
+    static int shardOf(String artist, int shardCount) {
+        return Math.floorMod(artist == null ? 0 : artist.hashCode(), shardCount);
+    }
+
+    /**
+     * Get the number of shards
+     * @return shard count
+     */
+    int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Find the songs matching a filter
+     * @param filter song filter, called from several threads at once
+     * @return new list of matching songs in catalog order
+     */
+    List<Song> filterSongs(Predicate<Song> filter) {
+        Object[] slots = new Object[albums.size()];
+        scan(shard -> {
+            for (int i : shards[shard]) {
+                List<Song> matches = null;
+                for (Song song : albums.get(i).scanSongs()) {
+                    if (filter.test(song)) {
+                        if (matches == null) {
+                            matches = new ArrayList<>();
+                        }
+                        matches.add(song);
+                    }
+                }
+                slots[i] = matches;
+            }
+        });
+        List<Song> songs = new ArrayList<>();
+        for (Object slot : slots) {
+            if (slot != null) {
+                @SuppressWarnings("unchecked")
+                List<Song> matches = (List<Song>) slot;
+                songs.addAll(matches);
+            }
+        }
+        return songs;
+    }
+
+    /**
+     * Find the albums matching a filter
+     * @param filter album filter, called from several threads at once
+     * @return new list of matching albums in catalog order
+     */
+    List<Album> filterAlbums(Predicate<Album> filter) {
+        boolean[] slots = new boolean[albums.size()];
+        scan(shard -> {
+            for (int i : shards[shard]) {
+                slots[i] = filter.test(albums.get(i));
+            }
+        });
+        List<Album> res = new ArrayList<>();
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i]) {
+                res.add(albums.get(i));
+            }
+        }
+        return res;
+    }
+
+    // run the task once per shard; each shard only writes the slots of its
+    // own albums, and the join makes every write visible to the caller
+    private void scan(IntConsumer task) {
+        if (shards.length == 1) {
+            task.accept(0);
+        } else {
+            IntStream.range(0, shards.length).parallel().forEach(task);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads and writes a binary snapshot of the whole catalog so the
+ * music store does not have to parse every album text file on each start.
+ * Every write goes to a file of its own, named after the snapshot file plus
+ * a generation number, and readers map the newest one. A file that is still
+ * mapped is never replaced, which some platforms refuse; older generations
+ * are deleted once they can be.
+ *
+ * Layout (all numbers big-endian):
+ *   magic, version
+ *   source count, then per source file: path, last modified millis, size
+ *   string count, then per string: byte length and UTF-8 bytes
+ *   album count, then per album: title, artist, genre (string table ids),
+ *   year, song count and the string table id of every song title
+ */
+class CatalogSnapshot {
+
+    private static final int MAGIC = 0x4D53434E;
+    private static final int VERSION = 1;
+
+    /**
+     * Write the albums to a new generation of the snapshot file together
+     * with the size and modification time of every source file they were
+     * parsed from
+     * @param snapshot snapshot file name the generations are named after
+     * @param albums albums to store
+     * @param sources the album list file followed by the file of every album
+     * @param stamps stamp of every source, taken before it was read; a file
+     *               that changed since no longer matches it
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void write(Path snapshot, List<Album> albums, List<Path> sources, List<Stamp> stamps)
+            throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Album album : albums) {
+            intern(album.getTitle(), ids, strings);
+            intern(album.getArtist(), ids, strings);
+            intern(album.getGenre(), ids, strings);
+            for (Song song : album.getSongs()) {
+                intern(song.getTitle(), ids, strings);
+            }
+        }
+
+        // write to a temporary file first so a crash never leaves half a snapshot
+        List<Path> old = generations(snapshot);
+        long next = old.isEmpty() ? 1 : generationOf(snapshot, old.get(old.size() - 1)) + 1;
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(sources.size());
+            for (int i = 0; i < sources.size(); i++) {
+                writeString(out, sources.get(i).toString());
+                out.writeLong(stamps.get(i).modified);
+                out.writeLong(stamps.get(i).size);
+            }
+
+            out.writeInt(strings.size());
+            for (String str : strings) {
+                writeString(out, str);
+            }
+
+            out.writeInt(albums.size());
+            for (Album album : albums) {
+                out.writeInt(ids.get(album.getTitle()));
+                out.writeInt(ids.get(album.getArtist()));
+                out.writeInt(ids.get(album.getGenre()));
+                out.writeInt(album.getYear());
+                out.writeInt(album.getSongs().size());
+                for (Song song : album.getSongs()) {
+                    out.writeInt(ids.get(song.getTitle()));
+                }
+            }
+        }
+        Files.move(tmp, snapshot.resolveSibling(snapshot.getFileName() + "." + next));
+
+        // a generation still mapped by a reader may not be deletable yet;
+        // the next write tries again. The single file of older versions goes too
+        old.add(snapshot);
+        for (Path path : old) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                // still in use
+            }
+        }
+    }
+
+    /**
+     * Read the albums from the newest generation of the snapshot file,
+     * memory-mapped
+     * @param snapshot snapshot file name the generations are named after
+     * @param files list to fill with the album file of every album
+     * @param stamps map to fill with the stamp of every source file
+     * @return the stored albums, or null if the snapshot is missing, corrupt
+     *         or any of its source files changed since it was written
+     */
+    static List<Album> read(Path snapshot, List<Path> files, Map<Path, Stamp> stamps) {
+        List<Path> generations;
+        try {
+            generations = generations(snapshot);
+        } catch (IOException e) {
+            return null;
+        }
+        if (generations.isEmpty()) {
+            return null;
+        }
+        Path newest = generations.get(generations.size() - 1);
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+
+            // the album list file comes first, then one file per album
+            int sourceCount = buf.getInt();
+            List<Path> sources = new ArrayList<>();
+            Map<Path, Stamp> stored = new HashMap<>();
+            for (int i = 0; i < sourceCount; i++) {
+                Path source = Path.of(readString(buf));
+                sources.add(source);
+                Stamp stamp = new Stamp(buf.getLong(), buf.getLong());
+                if (!Files.isRegularFile(source) || !stamp.equals(Stamp.of(source))) {
+                    return null;
+                }
+                stored.put(source, stamp);
+            }
+
+            String[] strings = new String[buf.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buf);
+            }
+
+            int albumCount = buf.getInt();
+            if (albumCount != sourceCount - 1) {
+                return null;
+            }
+            List<Album> albums = new ArrayList<>(albumCount);
+            for (int i = 0; i < albumCount; i++) {
+                String title = strings[buf.getInt()];
+                String artist = strings[buf.getInt()];
+                String genre = strings[buf.getInt()];
+                Album album = new Album(title, artist, genre, buf.getInt());
+                int songCount = buf.getInt();
+                // a corrupt count must not use up song ids
+                if (songCount < 0 || songCount > buf.remaining() / Integer.BYTES) {
+                    return null;
+                }
+                int firstId = Song.reserveIds(songCount);
+                for (int j = 0; j < songCount; j++) {
+                    album.addSong(new Song(strings[buf.getInt()], artist, title, genre, firstId + j));
+                }
+                albums.add(album);
+            }
+            files.addAll(sources.subList(1, sourceCount));
+            stamps.putAll(stored);
+            return albums;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException
+                | NegativeArraySizeException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find the generations of a snapshot file, oldest first
+     * @param snapshot snapshot file name the generations are named after
+     * @return the generation files, may be empty
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<Path> generations(Path snapshot) throws IOException {
+        Path dir = snapshot.toAbsolutePath().getParent();
+        List<Path> found = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return found;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                snapshot.getFileName() + ".*")) {
+            for (Path path : stream) {
+                if (generationOf(snapshot, path) > 0) {
+                    found.add(snapshot.resolveSibling(path.getFileName()));
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(generationOf(snapshot, a), generationOf(snapshot, b)));
+        return found;
+    }
+
+    // the generation number in a file name, or -1 if it is no generation
+    private static long generationOf(Path snapshot, Path path) {
+        String suffix = path.getFileName().toString()
+                .substring(snapshot.getFileName().toString().length() + 1);
+        if (suffix.isEmpty() || suffix.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (suffix.charAt(i) < '0' || suffix.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(suffix);
+    }
+
+    /**
+     * The modification time and size of a source file at one moment
+     */
+    static final class Stamp {
+        private final long modified;
+        private final long size;
+
+        private Stamp(long modified, long size) {
+            this.modified = modified;
+            this.size = size;
+        }
+
+        /**
+         * Take the stamp of a file; taken before the file is read, it no
+         * longer matches once the file changes after the read began
+         * @param file file to stamp
+         * @return the current stamp of the file
+         * @throws IOException if the file cannot be accessed
+         */
+        static Stamp of(Path file) throws IOException {
+            return new Stamp(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) o;
+            return modified == other.modified && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(modified) * 31 + Long.hashCode(size);
+        }
+    }
+
+    private static void intern(String str, Map<String, Integer> ids, List<String> strings) {
+        if (!ids.containsKey(str)) {
+            ids.put(str, strings.size());
+            strings.add(str);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
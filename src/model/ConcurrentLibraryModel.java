@@ -0,0 +1,281 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * This class is a user library that can be shared by several sessions of
+ * the same user at once.
+ *
+ * Reads take no lock and never wait: they run on the current version of
+ * the library, a LibraryModel held in a volatile field that never changes
+ * once published. A change copies the current version, applies itself to
+ * the copy and publishes it. The versions share every part of the library
+ * that a change does not touch, and within a part every chunk, page and
+ * tree node, so copying costs a few small arrays whatever the size of the
+ * library: a play copies a few pages of play statistics, adding a song a
+ * chunk and a segment of the song sequence. Changes take turns on one lock,
+ * so none is lost. A read sees every change published before it started,
+ * and a search or listing runs on one version from start to end.
+ *
+ * Everything handed out is a copy or read-only, including the playlists:
+ * edit them through this class, not through PlayList. Rating a song also
+ * sets the rating shown on the library's own song at once; listings sorted
+ * by rating use the ratings of their version
+ */
+public class ConcurrentLibraryModel extends LibraryModel {
+    private static final long serialVersionUID = 1L;
+
+    // the published version; the state inherited from LibraryModel is unused
+    private transient volatile LibraryModel current;
+    // changes take turns, each deriving the next version from the current one
+    private final transient Object writeLock = new Object();
+
+    /**
+     * Default constructor
+     */
+    public ConcurrentLibraryModel() {
+        this(DEFAULT_RECENT_LIMIT);
+    }
+
+    /**
+     * Constructor
+     * @param recentLimit number of songs kept in the recently played history
+     */
+    public ConcurrentLibraryModel(int recentLimit) {
+        super(recentLimit);
+        current = new LibraryModel(recentLimit);
+    }
+
+    /**
+     * Share an existing library, e.g. one loaded from the user data. The
+     * source is copied and should not be used afterwards
+     * @param source library to share
+     */
+    public ConcurrentLibraryModel(LibraryModel source) {
+        super(source.getRecentLimit());
+        current = new LibraryModel(source instanceof ConcurrentLibraryModel
+                ? ((ConcurrentLibraryModel) source).current : source);
+    }
+
+    // apply a change to a copy of the current version and publish the copy;
+    // a change that fails publishes nothing
+    private <T> T write(Function<LibraryModel, T> change) {
+        synchronized (writeLock) {
+            LibraryModel next = new LibraryModel(current);
+            T result = change.apply(next);
+            current = next;
+            return result;
+        }
+    }
+
+    // a copy of a playlist that later changes do not touch
+    private static PlayList copyOf(PlayList playList) {
+        if (playList == null) {
+            return null;
+        }
+        PlayList copy = new PlayList(playList.getListName(), playList.isAutoGenerated());
+        copy.getSongs().addAll(playList.getSongs());
+        return copy;
+    }
+
+    @Override
+    public List<PlayList> getPlayLists() {
+        List<PlayList> copies = new ArrayList<>();
+        for (PlayList playList : current.getPlayLists()) {
+            copies.add(copyOf(playList));
+        }
+        return Collections.unmodifiableList(copies);
+    }
+
+    @Override
+    public List<Song> getFavorites() {
+        return current.getFavorites();
+    }
+
+    @Override
+    public List<Song> getLibrary() {
+        return current.getLibrary();
+    }
+
+    @Override
+    public boolean containsSong(Song song) {
+        return current.containsSong(song);
+    }
+
+    @Override
+    public List<Song> searchSongByTitle(String title) {
+        return current.searchSongByTitle(title);
+    }
+
+    @Override
+    public List<Song> fuzzySearchSongByTitle(String title, int limit) {
+        return current.fuzzySearchSongByTitle(title, limit);
+    }
+
+    @Override
+    public List<Song> searchSongByArtist(String artist) {
+        return current.searchSongByArtist(artist);
+    }
+
+    @Override
+    public List<Album> searchAlbumByTitle(MusicStore musicStore, String title) {
+        return current.searchAlbumByTitle(musicStore, title);
+    }
+
+    @Override
+    public List<Album> searchAlbumByArtist(MusicStore musicStore, String artist) {
+        return current.searchAlbumByArtist(musicStore, artist);
+    }
+
+    @Override
+    public PlayList searchPlayListByTitle(String title) {
+        return copyOf(current.searchPlayListByTitle(title));
+    }
+
+    @Override
+    public List<String> getAllSongs() {
+        return current.getAllSongs();
+    }
+
+    @Override
+    public List<String> getAllArtists() {
+        return current.getAllArtists();
+    }
+
+    @Override
+    public List<String> getAllAlbums() {
+        return current.getAllAlbums();
+    }
+
+    @Override
+    public List<Song> getSortedSongs(String sortBy) {
+        return current.getSortedSongs(sortBy);
+    }
+
+    @Override
+    public List<Song> getSortedSongs(String sortBy, int limit) {
+        return current.getSortedSongs(sortBy, limit);
+    }
+
+    @Override
+    public List<Song> searchSongsByGenre(String genre) {
+        return current.searchSongsByGenre(genre);
+    }
+
+    @Override
+    public RandomPlaylistIterator createRandomPlaylist() {
+        return current.createRandomPlaylist();
+    }
+
+    @Override
+    public List<Song> getRecentlyPlayed() {
+        return current.getRecentlyPlayed();
+    }
+
+    @Override
+    public int getRecentLimit() {
+        return current.getRecentLimit();
+    }
+
+    @Override
+    public List<Song> getMostPlayed() {
+        return current.getMostPlayed();
+    }
+
+    @Override
+    public int getPlayCount(Song song) {
+        return current.getPlayCount(song);
+    }
+
+    @Override
+    public boolean createPlayList(String name) {
+        return write(library -> library.createPlayList(name));
+    }
+
+    @Override
+    public boolean addSongToPlayList(Song song, String playlistName) {
+        return write(library -> library.addSongToPlayList(song, playlistName));
+    }
+
+    @Override
+    public boolean removeSongFromPlayList(String songName, String artist, String playlistName) {
+        return write(library -> library.removeSongFromPlayList(songName, artist, playlistName));
+    }
+
+    @Override
+    public boolean addSongToLibrary(Song song) {
+        return write(library -> library.addSongToLibrary(song));
+    }
+
+    @Override
+    public void addAlbumSongsToLibrary(Album album) {
+        write(library -> {
+            library.addAlbumSongsToLibrary(album);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean markSongAsFavorite(Song song) {
+        return write(library -> library.markSongAsFavorite(song));
+    }
+
+    @Override
+    public boolean rateSong(Song song, int score) {
+        return write(library -> library.rateSong(song, score));
+    }
+
+    @Override
+    public void refreshAutoPlaylists() {
+        write(library -> {
+            library.refreshAutoPlaylists();
+            return null;
+        });
+    }
+
+    @Override
+    public void playSong(Song song) {
+        write(library -> {
+            library.playSong(song);
+            return null;
+        });
+    }
+
+    @Override
+    public int recordPlays(Collection<PlayEvent> events) {
+        return write(library -> library.recordPlays(events));
+    }
+
+    @Override
+    public void setRecentLimit(int recentLimit) {
+        write(library -> {
+            library.setRecentLimit(recentLimit);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean removeSongFromLibrary(Song song) {
+        return write(library -> library.removeSongFromLibrary(song));
+    }
+
+    @Override
+    public int removeAlbumFromLibrary(String albumTitle, String artist) {
+        return write(library -> library.removeAlbumFromLibrary(albumTitle, artist));
+    }
+
+    @Override
+    public int removeSongsFromLibrary(Collection<Song> songs) {
+        return write(library -> library.removeSongsFromLibrary(songs));
+    }
+
+    // saved as a plain library, so the user data does not depend on how it
+    // was shared; the current version never changes, so it is saved as is
+    private Object writeReplace() {
+        return current;
+    }
+}
@@ -0,0 +1,276 @@
+package model;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class finds terms (titles or artist names) that are close to a
+ * query even when it has typos, missing letters or missing accents.
+ *
+ * Every term is split into trigrams and an inverted index maps each trigram
+ * to the terms containing it. A query only looks at the terms sharing at
+ * least one trigram with it, keeps the ones sharing the most, and re-ranks
+ * those by edit distance, so the rest of the catalog is never scored.
+ *
+ * Later catalog versions derive their index with withChanges(): the
+ * postings are shared, terms that are gone are skipped and new terms go to
+ * a small index of their own, until those grow large enough to rebuild
+ */
+class FuzzyIndex {
+
+    // number of trigram candidates re-ranked by edit distance
+    private static final int MAX_CANDIDATES = 100;
+    // smallest number of changed terms that triggers a rebuild
+    private static final int MIN_REBUILD = 256;
+
+    private final String[] terms;
+    private final String[] normalized;
+    private final Map<String, int[]> postings;
+    // terms gone since the postings were built, and the index of the terms
+    // added since, or null if none were
+    private final Set<String> removed;
+    private final FuzzyIndex added;
+
+    /**
+     * Build the index
+     * @param terms terms to index, duplicates are ignored
+     */
+    FuzzyIndex(Collection<String> terms) {
+        this(normalizeAll(terms));
+    }
+
+    // build from distinct terms mapped to their normalized form
+    private FuzzyIndex(Map<String, String> normalizedByTerm) {
+        this.terms = normalizedByTerm.keySet().toArray(new String[0]);
+        this.normalized = normalizedByTerm.values().toArray(new String[0]);
+
+        Map<String, List<Integer>> lists = new HashMap<>();
+        for (int i = 0; i < this.terms.length; i++) {
+            for (String gram : trigrams(normalized[i])) {
+                lists.computeIfAbsent(gram, k -> new ArrayList<>()).add(i);
+            }
+        }
+        postings = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : lists.entrySet()) {
+            List<Integer> ids = entry.getValue();
+            int[] arr = new int[ids.size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = ids.get(i);
+            }
+            postings.put(entry.getKey(), arr);
+        }
+        removed = Collections.emptySet();
+        added = null;
+    }
+
+    /**
+     * Derived index sharing the postings of its base
+     * @param base index whose postings are shared
+     * @param removed terms of the base that are gone
+     * @param added index of the new terms, or null
+     */
+    private FuzzyIndex(FuzzyIndex base, Set<String> removed, FuzzyIndex added) {
+        terms = base.terms;
+        normalized = base.normalized;
+        postings = base.postings;
+        this.removed = removed;
+        this.added = added;
+    }
+
+    /**
+     * Derive the index of the next catalog version, sharing the postings of
+     * this one. This index is unchanged
+     * @param gone indexed terms to drop
+     * @param fresh terms to add that are not indexed yet
+     * @return derived index
+     */
+    FuzzyIndex withChanges(Collection<String> gone, Collection<String> fresh) {
+        Set<String> nextRemoved = new HashSet<>(removed);
+        // the terms added before keep their normalized form
+        Map<String, String> nextAdded = new LinkedHashMap<>();
+        if (added != null) {
+            for (int i = 0; i < added.terms.length; i++) {
+                nextAdded.put(added.terms[i], added.normalized[i]);
+            }
+        }
+        for (String term : gone) {
+            if (nextAdded.remove(term) == null) {
+                nextRemoved.add(term);
+            }
+        }
+        for (String term : fresh) {
+            if (!nextRemoved.remove(term)) {
+                nextAdded.put(term, normalize(term));
+            }
+        }
+        if (nextRemoved.size() + nextAdded.size() <= Math.max(MIN_REBUILD, terms.length / 8)) {
+            return new FuzzyIndex(this, nextRemoved, nextAdded.isEmpty() ? null : new FuzzyIndex(nextAdded));
+        }
+        Map<String, String> all = new LinkedHashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+            if (!nextRemoved.contains(terms[i])) {
+                all.put(terms[i], normalized[i]);
+            }
+        }
+        all.putAll(nextAdded);
+        return new FuzzyIndex(all);
+    }
+
+    private static Map<String, String> normalizeAll(Collection<String> terms) {
+        Map<String, String> res = new LinkedHashMap<>();
+        for (String term : terms) {
+            res.put(term, normalize(term));
+        }
+        return res;
+    }
+
+    /**
+     * Find the terms closest to the query
+     * @param query input text, possibly misspelled
+     * @param limit maximum number of terms
+     * @return matching terms, closest first
+     */
+    List<String> search(String query, int limit) {
+        List<String> res = new ArrayList<>();
+        String q = normalize(query);
+        if (limit <= 0 || q.isEmpty()) {
+            return res;
+        }
+
+        // candidate generation: count shared trigrams per term
+        Set<String> grams = trigrams(q);
+        int minShared = Math.max(1, grams.size() / 3);
+        List<Candidate> candidates = new ArrayList<>();
+        collect(grams, minShared, candidates);
+        if (added != null) {
+            added.collect(grams, minShared, candidates);
+        }
+        // ties are broken by term, so the cut does not depend on how the
+        // index was built
+        candidates.sort((a, b) -> {
+            int cmp = Integer.compare(b.shared, a.shared);
+            return cmp != 0 ? cmp : a.term.compareTo(b.term);
+        });
+        if (candidates.size() > MAX_CANDIDATES) {
+            candidates = candidates.subList(0, MAX_CANDIDATES);
+        }
+
+        // re-rank the candidates by edit distance
+        int maxDistance = Math.max(1, q.length() / 3);
+        List<Candidate> scored = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            candidate.distance = editDistance(q, candidate.normalized);
+            if (candidate.distance <= maxDistance) {
+                scored.add(candidate);
+            }
+        }
+        scored.sort((a, b) -> {
+            if (a.distance != b.distance) {
+                return Integer.compare(a.distance, b.distance);
+            }
+            int cmp = Integer.compare(b.shared, a.shared);
+            return cmp != 0 ? cmp : a.term.compareTo(b.term);
+        });
+        for (int i = 0; i < scored.size() && i < limit; i++) {
+            res.add(scored.get(i).term);
+        }
+        return res;
+    }
+
+    // add the terms sharing at least minShared of the trigrams
+    private void collect(Set<String> grams, int minShared, List<Candidate> out) {
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String gram : grams) {
+            int[] ids = postings.get(gram);
+            if (ids != null) {
+                for (int id : ids) {
+                    shared.merge(id, 1, Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+            int id = entry.getKey();
+            if (entry.getValue() >= minShared && !removed.contains(terms[id])) {
+                out.add(new Candidate(terms[id], normalized[id], entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Normalize text for fuzzy comparison: strip accents, lower case and
+     * collapse white space
+     * @param text input text
+     * @return normalized text
+     */
+    static String normalize(String text) {
+        String res = Normalizer.normalize(text, Normalizer.Form.NFD);
+        res = res.replaceAll("\\p{M}", "");
+        return res.toLowerCase(Locale.ROOT).trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Split normalized text into trigrams, padded so that the beginning and
+     * end of the text form trigrams of their own
+     * @param text normalized text
+     * @return distinct trigrams
+     */
+    static Set<String> trigrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        String padded = "  " + text + " ";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /**
+     * Levenshtein distance between two strings
+     * @param a first string
+     * @param b second string
+     * @return minimum number of single character edits
+     */
+    static int editDistance(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            }
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[b.length()];
+    }
+
+    /**
+     * A term sharing trigrams with the query
+     */
+    private static final class Candidate {
+        private final String term;
+        private final String normalized;
+        private final int shared;
+        private int distance;
+
+        Candidate(String term, String normalized, int shared) {
+            this.term = term;
+            this.normalized = normalized;
+            this.shared = shared;
+        }
+    }
+}
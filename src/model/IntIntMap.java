@@ -0,0 +1,160 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class maps int keys to int values without boxing. Entries live in
+ * two parallel arrays with open addressing and linear probing, so lookups
+ * and updates allocate nothing; only growing the table does
+ */
+class IntIntMap {
+
+    // marks a free slot; it cannot be used as a key
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Create an empty map
+     */
+    IntIntMap() {
+        this(8);
+    }
+
+    /**
+     * Create an empty map
+     * @param expected number of entries to make room for
+     */
+    IntIntMap(int expected) {
+        int capacity = 8;
+        while (capacity * 3 / 4 < expected) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * Copy a map
+     * @param source map to copy
+     */
+    IntIntMap(IntIntMap source) {
+        keys = source.keys.clone();
+        values = source.values.clone();
+        size = source.size;
+    }
+
+    /**
+     * Get the value of a key
+     * @param key input key
+     * @param missing value returned when the key is absent
+     * @return the value, or missing
+     */
+    int get(int key, int missing) {
+        int i = indexOf(key);
+        return keys[i] == key ? values[i] : missing;
+    }
+
+    /**
+     * Check if a key is present
+     * @param key input key
+     * @return true if present, else false
+     */
+    boolean containsKey(int key) {
+        return keys[indexOf(key)] == key;
+    }
+
+    /**
+     * Set the value of a key
+     * @param key input key, anything but Integer.MIN_VALUE
+     * @param value new value
+     */
+    void put(int key, int value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("reserved key: " + key);
+        }
+        int i = indexOf(key);
+        if (keys[i] != key) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+                i = indexOf(key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    /**
+     * Remove a key
+     * @param key input key
+     * @return true if the key was present, else false
+     */
+    boolean remove(int key) {
+        int i = indexOf(key);
+        if (keys[i] != key) {
+            return false;
+        }
+        // shift later entries of the probe run back so lookups still find them
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == FREE) {
+                break;
+            }
+            int home = mix(keys[j]) & mask;
+            // keys[j] may move to i only if i lies on its probe path
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = FREE;
+        size--;
+        return true;
+    }
+
+    /**
+     * Get the number of entries
+     * @return entry count
+     */
+    int size() {
+        return size;
+    }
+
+    // slot holding the key, or the free slot where it would go
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, FREE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int j = indexOf(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    // spread sequential ids over the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,5 +1,9 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.*;
 
@@ -12,51 +16,351 @@ import java.util.*;
 public class LibraryModel implements Serializable {
     // Add serialVersionUID for serialization compatibility
     private static final long serialVersionUID = 1L;
+    // default number of songs kept in the recently played history
+    public static final int DEFAULT_RECENT_LIMIT = 10;
+    // number of songs in the most played list
+    private static final int MOST_PLAYED_LIMIT = 10;
+    // a genre gets its own "<Genre> Mix" playlist from this many songs on
+    private static final int GENRE_MIX_MIN_SONGS = 10;
+    private static final String MIX_SUFFIX = " Mix";
+    private static final String MOST_PLAYED = "Most Played";
+    private static final String RECENTLY_PLAYED = "Recently Played";
+    private static final String FAVORITES = "Favorites";
+    // segments of the song maps; libraries are far smaller than the catalog
+    private static final int SEGMENT_BITS = 8;
+    // the serialized form is the one of the first release, with the library
+    // as a List, so user data saved by older versions still loads
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("playLists", List.class),
+            new ObjectStreamField("favorites", List.class),
+            new ObjectStreamField("library", List.class),
+            new ObjectStreamField("playCount", Map.class),
+            new ObjectStreamField("recentlyPlayed", LinkedList.class),
+            new ObjectStreamField("recentLimit", int.class),
+            new ObjectStreamField("userListsOnly", boolean.class)
+    };
 
-    // list of play list object
+    // The parts below are shared with a copy of the library until one of
+    // the two changes them: the first change after a copy replaces a part
+    // by a copy of its own, which in turn shares the chunks, pages or nodes
+    // of the part it does not change. Copying a library thus costs a few
+    // small arrays, so ConcurrentLibraryModel can publish a new version on
+    // every change
+
+    // play lists created by the user
     private List<PlayList> playLists;
-    // list of favorite songs
-    private List<Song> favorites;
-    private List<Song> library;
-    // Map to track play counts for songs
-    private Map<Song, Integer> playCount;
-    // List to track recently played songs
-    private LinkedList<Song> recentlyPlayed;
+    // index in playLists of the user play lists holding each song, so
+    // removing a song only touches the play lists it is in
+    private transient SegmentedMap<Song, int[]> playListsOf;
+    // user play lists this library made or copied, which it may change
+    private transient Set<PlayList> ownPlayLists;
+    // auto-generated play lists, computed from the library when read
+    private transient AutoPlayList mostPlayedList;
+    private transient AutoPlayList recentlyPlayedList;
+    private transient AutoPlayList favoritesList;
+    // favorite songs, in the order they were marked
+    private transient SongSequence favorites;
+    // rating and favorite mark of every library song by id; the rating on
+    // the user's own song mirrors it for display
+    private transient SongMarks marks;
+    // library songs in the order they were added; an equal song, e.g. the
+    // catalog one, finds the user's own copy
+    private transient SongSequence library;
+    // play counts, the most played ranking and the recently played history,
+    // kept in primitive arrays
+    private transient PlayStats playStats;
+    // fuzzy index over library titles, built on demand and dropped on change.
+    // This and the other parts built on demand are volatile: readers of a
+    // version published by ConcurrentLibraryModel may build them
+    private transient volatile FuzzyIndex titleIndex;
+    // library songs sorted by title, artist and rating, built on demand and
+    // kept up to date afterwards
+    private transient volatile SortedSongs sortedSongs;
+    // library songs by genre, the genre sequences this library made or
+    // copied, and the genre each song was filed under, so a song is found
+    // again after its genre changed
+    private transient Map<String, SongSequence> songsByGenre;
+    private transient Set<String> ownGenres;
+    private transient SegmentedMap<Song, String> genreOf;
+    // parts shared with a copy, to be copied before they change
+    private transient boolean playListsShared;
+    private transient boolean favoritesShared;
+    private transient boolean marksShared;
+    private transient boolean libraryShared;
+    private transient boolean statsShared;
+    private transient boolean sortedShared;
+    private transient boolean genresShared;
 
     /**
      * Default constructor
      */
     public LibraryModel() {
+        this(DEFAULT_RECENT_LIMIT);
+    }
+
+    /**
+     * Constructor
+     * @param recentLimit number of songs kept in the recently played history
+     */
+    public LibraryModel(int recentLimit) {
+        if (recentLimit < 1) {
+            throw new IllegalArgumentException("recent limit must be at least 1: " + recentLimit);
+        }
         playLists = new ArrayList<PlayList>();
-        favorites = new ArrayList<>();
-        library = new ArrayList<>();
-        playCount = new HashMap<>();
-        recentlyPlayed = new LinkedList<>();
+        playListsOf = new SegmentedMap<>(SEGMENT_BITS);
+        ownPlayLists = Collections.newSetFromMap(new IdentityHashMap<>());
+        favorites = new SongSequence();
+        marks = new SongMarks();
+        library = new SongSequence();
+        playStats = new PlayStats(recentLimit);
 
-        // Create auto-generated playlists
-        createPlayList("Most Played");
-        createPlayList("Recently Played");
-        createPlayList("Favorites");
+        songsByGenre = new LinkedHashMap<>();
+        ownGenres = new HashSet<>();
+        genreOf = new SegmentedMap<>(SEGMENT_BITS);
+
+        createAutoPlayLists();
     }
 
     /**
-     * Get all playlist of the library
-     * @return list of playlist
+     * Copy a library: its songs, favorites, playlists, genres and play
+     * statistics. Songs are shared with the source, and so is every part
+     * until the copy or the source changes it; the cost does not depend on
+     * the size of the library. Playlists of the source handed out before
+     * must not be changed through PlayList afterwards
+     * @param source library to copy
      */
-    public List<PlayList> getPlayLists() {
+    LibraryModel(LibraryModel source) {
+        source.shareParts();
+        playLists = source.playLists;
+        playListsOf = source.playListsOf;
+        favorites = source.favorites;
+        marks = source.marks;
+        library = source.library;
+        playStats = source.playStats;
+        titleIndex = source.titleIndex;
+        sortedSongs = source.sortedSongs;
+        songsByGenre = source.songsByGenre;
+        genreOf = source.genreOf;
+        shareParts();
+
+        createAutoPlayLists();
+    }
+
+    // mark every part as shared with a copy
+    private void shareParts() {
+        playListsShared = true;
+        favoritesShared = true;
+        marksShared = true;
+        libraryShared = true;
+        statsShared = true;
+        sortedShared = true;
+        genresShared = true;
+    }
+
+    // index the songs of every user play list
+    private void indexPlayLists() {
+        playListsOf = new SegmentedMap<>(SEGMENT_BITS);
+        ownPlayLists = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < playLists.size(); i++) {
+            ownPlayLists.add(playLists.get(i));
+            for (Song song : playLists.get(i).getSongs()) {
+                playListsOf.put(song, withIndex(playListsOf.get(song), i));
+            }
+        }
+    }
+
+    private void createAutoPlayLists() {
+        mostPlayedList = new AutoPlayList(MOST_PLAYED, this::getMostPlayed);
+        recentlyPlayedList = new AutoPlayList(RECENTLY_PLAYED, this::getRecentlyPlayed);
+        favoritesList = new AutoPlayList(FAVORITES, () -> new ArrayList<>(favorites.toList()));
+    }
+
+    // The parts this library may change, each copied first if it is shared
+
+    private List<PlayList> writablePlayLists() {
+        if (playListsShared) {
+            playLists = new ArrayList<>(playLists);
+            playListsOf = new SegmentedMap<>(playListsOf);
+            ownPlayLists = Collections.newSetFromMap(new IdentityHashMap<>());
+            playListsShared = false;
+        }
         return playLists;
     }
 
+    // a user play list this library may change, copied first if shared
+    private PlayList writablePlayList(int index) {
+        PlayList playList = writablePlayLists().get(index);
+        if (!ownPlayLists.contains(playList)) {
+            PlayList copy = new PlayList(playList.getListName());
+            copy.getSongs().addAll(playList.getSongs());
+            playLists.set(index, copy);
+            ownPlayLists.add(copy);
+            playList = copy;
+        }
+        return playList;
+    }
+
+    private SongSequence writableFavorites() {
+        if (favoritesShared) {
+            favorites = new SongSequence(favorites);
+            favoritesShared = false;
+        }
+        return favorites;
+    }
+
+    private SongMarks writableMarks() {
+        if (marksShared) {
+            marks = new SongMarks(marks);
+            marksShared = false;
+        }
+        return marks;
+    }
+
+    private SongSequence writableLibrary() {
+        if (libraryShared) {
+            library = new SongSequence(library);
+            libraryShared = false;
+        }
+        libraryChanged();
+        return library;
+    }
+
+    private PlayStats writableStats() {
+        if (statsShared) {
+            playStats = new PlayStats(playStats);
+            statsShared = false;
+        }
+        return playStats;
+    }
+
+    // the sorted listings if built, copied first if shared
+    private SortedSongs writableSorted() {
+        if (sortedShared && sortedSongs != null) {
+            sortedSongs = new SortedSongs(sortedSongs);
+            sortedShared = false;
+        }
+        return sortedSongs;
+    }
+
+    private Map<String, SongSequence> writableGenres() {
+        if (genresShared) {
+            songsByGenre = new LinkedHashMap<>(songsByGenre);
+            ownGenres = new HashSet<>();
+            genreOf = new SegmentedMap<>(genreOf);
+            genresShared = false;
+        }
+        return songsByGenre;
+    }
+
+    // the songs of a genre, created if the genre has none yet
+    private SongSequence writableGenre(String genre) {
+        writableGenres();
+        if (ownGenres.add(genre)) {
+            SongSequence songs = songsByGenre.get(genre);
+            songsByGenre.put(genre, songs == null ? new SongSequence() : new SongSequence(songs));
+        }
+        return songsByGenre.get(genre);
+    }
+
+    // the play list indexes with one index added or removed
+    private static int[] withIndex(int[] indexes, int index) {
+        if (indexes == null) {
+            return new int[] {index};
+        }
+        int[] more = Arrays.copyOf(indexes, indexes.length + 1);
+        more[indexes.length] = index;
+        return more;
+    }
+
+    private static int[] withoutIndex(int[] indexes, int index) {
+        int[] fewer = new int[indexes.length - 1];
+        int n = 0;
+        for (int i : indexes) {
+            if (i != index && n < fewer.length) {
+                fewer[n++] = i;
+            }
+        }
+        return fewer.length == 0 ? null : fewer;
+    }
+
+    /**
+     * Get all playlist of the library: the auto-generated ones, the user's
+     * own, and a mix for every genre with at least 10 songs
+     * @return read-only list of playlist
+     */
+    public List<PlayList> getPlayLists() {
+        List<PlayList> all = new ArrayList<>();
+        all.add(mostPlayedList);
+        all.add(recentlyPlayedList);
+        all.add(favoritesList);
+        all.addAll(playLists);
+        for (Map.Entry<String, SongSequence> entry : songsByGenre.entrySet()) {
+            // a user playlist of the same name, made while the genre had
+            // too few songs, hides the mix as it does in searchPlayListByTitle
+            if (entry.getValue().size() >= GENRE_MIX_MIN_SONGS
+                    && findUserPlayList(entry.getKey() + MIX_SUFFIX) == null) {
+                all.add(genreMix(entry.getKey()));
+            }
+        }
+        return Collections.unmodifiableList(all);
+    }
+
+    private AutoPlayList genreMix(String genre) {
+        return new AutoPlayList(genre + MIX_SUFFIX, () -> {
+            SongSequence songs = songsByGenre.get(genre);
+            return songs == null ? new ArrayList<>() : new ArrayList<>(songs.toList());
+        });
+    }
+
     /**
      * Get list of favorite songs
-     * @return list of favorite songs
+     * @return read-only list of favorite songs
      */
     public List<Song> getFavorites() {
-        return favorites;
+        return favorites.toList();
+    }
+
+    // add a song to the favorites unless it is one already
+    private boolean addFavorite(Song song) {
+        if (marks.isFavorite(song.getId())) {
+            return false;
+        }
+        writableMarks().setFavorite(song.getId(), true);
+        writableFavorites().add(song);
+        return true;
+    }
+
+    // the rating the library keeps for a song
+    private int ratingOf(Song song) {
+        return marks.rating(song.getId());
+    }
+
+    private void storeRating(Song song, int rating) {
+        if (marks.rating(song.getId()) != rating) {
+            writableMarks().setRating(song.getId(), rating);
+        }
     }
 
+    /**
+     * Get the songs of the library
+     * @return read-only list of songs in the order they were added
+     */
     public List<Song> getLibrary() {
-        return library;
+        return library.toList();
+    }
+
+    /**
+     * Check if a song is in the library
+     * @param song input song object
+     * @return true if the library holds the song, else false
+     */
+    public boolean containsSong(Song song) {
+        return library.contains(song);
+    }
+
+    // forget everything derived from the library contents
+    private void libraryChanged() {
+        titleIndex = null;
     }
 
     /**
@@ -74,6 +378,32 @@ public class LibraryModel implements Serializable {
         return songs;
     }
 
+    /**
+     * Search songs whose title is close to the input, tolerating typos,
+     * case and missing accents
+     * @param title input song title, possibly misspelled
+     * @param limit maximum number of songs
+     * @return list of song objects, closest titles first
+     */
+    public List<Song> fuzzySearchSongByTitle(String title, int limit) {
+        if (titleIndex == null) {
+            List<String> titles = new ArrayList<>();
+            for (Song song : library) {
+                titles.add(song.getTitle());
+            }
+            titleIndex = new FuzzyIndex(titles);
+        }
+        List<Song> songs = new ArrayList<>();
+        for (String match : titleIndex.search(title, limit)) {
+            for (Song song : searchSongByTitle(match)) {
+                if (songs.size() < limit) {
+                    songs.add(song);
+                }
+            }
+        }
+        return songs;
+    }
+
     /**
      * Search specified songs by song artist
      * @param artist input song artist
@@ -135,26 +465,66 @@ public class LibraryModel implements Serializable {
      * @return searched playlist object if found, else null
      */
     public PlayList searchPlayListByTitle(String title) {
-        for (PlayList playList : playLists) {
-            if (playList.getListName().equals(title)) {
-                return playList;
-            }
+        return findPlayList(title);
+    }
+
+    private PlayList findPlayList(String title) {
+        PlayList own = findUserPlayList(title);
+        if (own != null) {
+            return own;
+        }
+        switch (title) {
+            case MOST_PLAYED:
+                return mostPlayedList;
+            case RECENTLY_PLAYED:
+                return recentlyPlayedList;
+            case FAVORITES:
+                return favoritesList;
+            default:
+                break;
+        }
+        if (isGenreMix(title)) {
+            return genreMix(title.substring(0, title.length() - MIX_SUFFIX.length()));
         }
         return null;
     }
 
+    private PlayList findUserPlayList(String title) {
+        int index = indexOfUserPlayList(title);
+        return index < 0 ? null : playLists.get(index);
+    }
+
+    private int indexOfUserPlayList(String title) {
+        for (int i = 0; i < playLists.size(); i++) {
+            if (playLists.get(i).getListName().equals(title)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // true if the name is the one of a genre mix the library has now
+    private boolean isGenreMix(String name) {
+        if (!name.endsWith(MIX_SUFFIX)) {
+            return false;
+        }
+        SongSequence songs = songsByGenre.get(name.substring(0, name.length() - MIX_SUFFIX.length()));
+        return songs != null && songs.size() >= GENRE_MIX_MIN_SONGS;
+    }
+
     /**
-     * Add a new play list to the library
+     * Add a new play list to the library. The names of the auto-generated
+     * playlists and of the genre mixes the library has now are taken
      * @param name input play list name
      * @return true if add successfully, else false
      */
     public boolean createPlayList(String name) {
-        for (PlayList playList : playLists) {
-            if (playList.getListName().equals(name)) {
-                return false;
-            }
+        if (findPlayList(name) != null) {
+            return false;
         }
-        playLists.add(new PlayList(name));
+        PlayList playList = new PlayList(name);
+        writablePlayLists().add(playList);
+        ownPlayLists.add(playList);
         return true;
     }
 
@@ -165,16 +535,21 @@ public class LibraryModel implements Serializable {
      * @return true if add successfully, else false
      */
     public boolean addSongToPlayList(Song song, String playlistName) {
-        PlayList playList = searchPlayListByTitle(playlistName);
-        if (playList == null) {
+        PlayList playList = findPlayList(playlistName);
+        if (playList == null || playList.isAutoGenerated()) {
             return false;
         }
         if (playList.containsSong(song.getTitle(), song.getArtist())) {
             return false;
         }
-        playList.addSong(song);
+        song = own(song);
+        int index = indexOfUserPlayList(playlistName);
+        if (writablePlayList(index).addSong(song)) {
+            playListsOf.put(song, withIndex(playListsOf.get(song), index));
+        }
         if (!library.contains(song)) {
-            library.add(song);
+            writableLibrary().add(song);
+            songAdded(song);
         }
         return true;
     }
@@ -187,24 +562,35 @@ public class LibraryModel implements Serializable {
      * @return true if removed successfully, else false
      */
     public boolean removeSongFromPlayList(String songName, String artist, String playlistName) {
-        PlayList playList = searchPlayListByTitle(playlistName);
-        if (playList == null) {
+        PlayList playList = findPlayList(playlistName);
+        if (playList == null || playList.isAutoGenerated()) {
             return false;
         }
-        if (!playList.containsSong(songName, artist)) {
+        Song song = null;
+        for (Song listed : playList.getSongs()) {
+            if (listed.getTitle().equals(songName) && listed.getArtist().equals(artist)) {
+                song = listed;
+                break;
+            }
+        }
+        if (song == null) {
             return false;
         }
-        playList.removeSong(songName, artist);
-        int idx = -1;
-        for (int i = 0; i < library.size(); i++) {
-            Song song = library.get(i);
-            if (song.getTitle().equals(songName) && song.getArtist().equals(artist)) {
-                idx = i;
-                break;
+        int index = indexOfUserPlayList(playlistName);
+        writablePlayList(index).removeSong(songName, artist);
+        int[] holders = playListsOf.get(song);
+        if (holders != null) {
+            int[] left = withoutIndex(holders, index);
+            if (left == null) {
+                playListsOf.remove(song);
+            } else {
+                playListsOf.put(song, left);
             }
         }
-        if (idx != -1) {
-            library.remove(idx);
+        // the song leaves the library as well
+        if (library.contains(song)) {
+            writableLibrary().remove(song);
+            songRemoved(song);
         }
         return true;
     }
@@ -215,20 +601,36 @@ public class LibraryModel implements Serializable {
      * @return true if add successfully, else false
      */
     public boolean addSongToLibrary(Song song) {
+        return addSong(song);
+    }
+
+    private boolean addSong(Song song) {
         if (library.contains(song)) {
             return false;
         }
-        library.add(song);
+        song = own(song);
+        writableLibrary().add(song);
+        songAdded(song);
         return true;
     }
 
+    // the user's own instance of a song: the library one if there is one,
+    // else a copy of a shared catalog song, which users must not change
+    private Song own(Song song) {
+        Song owned = library.get(song);
+        if (owned != null) {
+            return owned;
+        }
+        return song.isShared() ? song.copy() : song;
+    }
+
     /**
      * Add album songs to the library
      * @param album input album object
      */
     public void addAlbumSongsToLibrary(Album album) {
         for (Song song : album.getSongs()) {
-            addSongToLibrary(song);
+            addSong(song);
         }
     }
 
@@ -249,13 +651,11 @@ public class LibraryModel implements Serializable {
      * @return all song artists
      */
     public List<String> getAllArtists() {
-        List<String> artists = new ArrayList<>();
+        Set<String> artists = new LinkedHashSet<>();
         for (Song song : library) {
-            if (!artists.contains(song.getArtist())) {
-                artists.add(song.getArtist());
-            }
+            artists.add(song.getArtist());
         }
-        return artists;
+        return new ArrayList<>(artists);
     }
 
     /**
@@ -263,13 +663,11 @@ public class LibraryModel implements Serializable {
      * @return all song albums
      */
     public List<String> getAllAlbums() {
-        List<String> albums = new ArrayList<>();
+        Set<String> albums = new LinkedHashSet<>();
         for (Song song : library) {
-            if (!albums.contains(song.getAlbum())) {
-                albums.add(song.getAlbum());
-            }
+            albums.add(song.getAlbum());
         }
-        return albums;
+        return new ArrayList<>(albums);
     }
 
     /**
@@ -278,10 +676,11 @@ public class LibraryModel implements Serializable {
      * @return true if marked successfully, else false
      */
     public boolean markSongAsFavorite(Song song) {
-        if (!favorites.contains(song)) {
-            favorites.add(song);
+        song = own(song);
+        if (addFavorite(song)) {
             if (!library.contains(song)) {
-                library.add(song);
+                writableLibrary().add(song);
+                songAdded(song);
             }
             return true;
         }
@@ -296,12 +695,18 @@ public class LibraryModel implements Serializable {
      * @return true if rated successfully, else false
      */
     public boolean rateSong(Song song, int score) {
-        if (!library.contains(song)) {
+        // rate the library's own instance, which may not be the given one
+        song = library.get(song);
+        if (song == null) {
             return false;
         }
         song.setRating(score);
-        if (score == 5 && !favorites.contains(song)) {
-            favorites.add(song);
+        storeRating(song, score);
+        if (sortedSongs != null) {
+            writableSorted().rate(song, score);
+        }
+        if (score == 5) {
+            addFavorite(song);
         }
         return true;
     }
@@ -311,47 +716,107 @@ public class LibraryModel implements Serializable {
      * @param song The song to play
      */
     public void playSong(Song song) {
-        if (library.contains(song)) {
-            // Increment play count
-            int count = playCount.getOrDefault(song, 0) + 1;
-            playCount.put(song, count);
+        // the library's own copy, which carries the user's rating
+        Song owned = findOwned(song);
+        if (owned != null) {
+            writableStats().play(owned);
+        }
+    }
 
-            // Update recently played
-            if (recentlyPlayed.contains(song)) {
-                recentlyPlayed.remove(song);
-            }
-            recentlyPlayed.addFirst(song);
+    // the library's own instance of a song, or null if the library does not
+    // hold it. A song played before is found by its id, without hashing it:
+    // only copies share an id, and they are equal
+    private Song findOwned(Song song) {
+        Song played = playStats.song(song.getId());
+        return played != null ? played : library.get(song);
+    }
 
-            // Limit recently played to 10 songs
-            while (recentlyPlayed.size() > 10) {
-                recentlyPlayed.removeLast();
+    /**
+     * Record many plays at once, e.g. an imported listening history. The
+     * result is the same as playing the songs one by one in time order, but
+     * library membership is checked once per song and the play counts,
+     * ranking and history are updated once for the whole batch
+     * @param events plays to record; plays of songs outside the library are
+     *               ignored
+     * @return number of plays recorded
+     */
+    public int recordPlays(Collection<PlayEvent> events) {
+        List<PlayEvent> ordered = new ArrayList<>(events);
+        ordered.sort(Comparator.comparingLong(PlayEvent::getTime));
+        // the library's own song of every play, null for songs outside the
+        // library, and the plays per song id
+        Song[] owned = new Song[ordered.size()];
+        IntIntMap plays = new IntIntMap();
+        for (int i = 0; i < owned.length; i++) {
+            Song song = findOwned(ordered.get(i).getSong());
+            if (song != null) {
+                owned[i] = song;
+                plays.put(song.getId(), plays.get(song.getId(), 0) + 1);
+            }
+        }
+        // distinct songs by their last play, most recent first
+        Song[] played = new Song[plays.size()];
+        int[] counts = new int[plays.size()];
+        int n = 0;
+        int recorded = 0;
+        for (int i = owned.length - 1; i >= 0; i--) {
+            Song song = owned[i];
+            int count = song == null ? 0 : plays.get(song.getId(), 0);
+            if (count > 0) {
+                played[n] = song;
+                counts[n++] = count;
+                recorded += count;
+                plays.put(song.getId(), 0);
             }
-
-            // Update auto playlists
-            updateAutoPlaylists();
         }
+        for (int i = 0, k = n - 1; i < k; i++, k--) {
+            Song song = played[i];
+            played[i] = played[k];
+            played[k] = song;
+            int count = counts[i];
+            counts[i] = counts[k];
+            counts[k] = count;
+        }
+        writableStats().playAll(played, counts, n);
+        return recorded;
     }
 
     /**
-     * Get the recently played songs (max 10)
-     * @return List of recently played songs
+     * Get the recently played songs
+     * @return List of recently played songs, most recent first, at most
+     *         getRecentLimit() songs
      */
     public List<Song> getRecentlyPlayed() {
-        return new ArrayList<>(recentlyPlayed);
+        return playStats.recent();
+    }
+
+    /**
+     * Get the size of the recently played history
+     * @return maximum number of recently played songs
+     */
+    public int getRecentLimit() {
+        return playStats.getRecentLimit();
+    }
+
+    /**
+     * Change the size of the recently played history; the least recent songs
+     * are dropped if the history is longer than the new limit
+     * @param recentLimit maximum number of recently played songs, at least 1
+     */
+    public void setRecentLimit(int recentLimit) {
+        if (recentLimit < 1) {
+            throw new IllegalArgumentException("recent limit must be at least 1: " + recentLimit);
+        }
+        writableStats().setRecentLimit(recentLimit);
     }
 
     /**
      * Get the most played songs (max 10)
-     * @return List of most played songs sorted by play count
+     * @return List of most played songs sorted by play count; songs with
+     *         the same count are in the order they reached it
      */
     public List<Song> getMostPlayed() {
-        List<Song> sortedByPlayCount = new ArrayList<>(playCount.keySet());
-        sortedByPlayCount.sort((s1, s2) ->
-                Integer.compare(playCount.getOrDefault(s2, 0),
-                        playCount.getOrDefault(s1, 0)));
-
-        return sortedByPlayCount.size() <= 10 ?
-                sortedByPlayCount : sortedByPlayCount.subList(0, 10);
+        return playStats.top(MOST_PLAYED_LIMIT);
     }
 
     /**
@@ -360,83 +825,62 @@ public class LibraryModel implements Serializable {
      * @return The play count
      */
     public int getPlayCount(Song song) {
-        return playCount.getOrDefault(song, 0);
+        Song owned = findOwned(song);
+        return owned == null ? 0 : playStats.count(owned);
     }
 
     /**
-     * Update auto-generated playlists
+     * File every library song under its current genre again, so the genre
+     * mixes follow genre changes made outside the library, e.g. with
+     * MusicStore.addGenreInfo. Other library changes are followed on their own
      */
-    private void updateAutoPlaylists() {
-        // Update Most Played playlist
-        PlayList mostPlayedList = searchPlayListByTitle("Most Played");
-        if (mostPlayedList != null) {
-            // Clear and repopulate the playlist
-            mostPlayedList.getSongs().clear();
-            for (Song song : getMostPlayed()) {
-                mostPlayedList.addSong(song);
-            }
-        }
-
-        // Update Recently Played playlist
-        PlayList recentlyPlayedList = searchPlayListByTitle("Recently Played");
-        if (recentlyPlayedList != null) {
-            recentlyPlayedList.getSongs().clear();
-            for (Song song : recentlyPlayed) {
-                recentlyPlayedList.addSong(song);
-            }
+    public void refreshAutoPlaylists() {
+        songsByGenre = new LinkedHashMap<>();
+        ownGenres = new HashSet<>();
+        genreOf = new SegmentedMap<>(SEGMENT_BITS);
+        genresShared = false;
+        for (Song song : library) {
+            fileUnderGenre(song);
         }
+    }
 
-        // Update Favorites playlist
-        PlayList favoritesPlaylist = searchPlayListByTitle("Favorites");
-        if (favoritesPlaylist != null) {
-            favoritesPlaylist.getSongs().clear();
-            for (Song song : favorites) {
-                favoritesPlaylist.addSong(song);
-            }
+    // a song joined the library
+    private void songAdded(Song song) {
+        libraryChanged();
+        // a song of the user's own may come rated
+        storeRating(song, song.getRating());
+        if (sortedSongs != null) {
+            writableSorted().add(song, ratingOf(song));
         }
-
-        // Create genre-based playlists
-        updateGenrePlaylists();
+        fileUnderGenre(song);
     }
 
-    /**
-     * Update genre-based playlists
-     */
-    private void updateGenrePlaylists() {
-        // Count songs by genre
-        Map<String, List<Song>> songsByGenre = new HashMap<>();
-
-        for (Song song : library) {
-            String genre = song.getGenre();
-            if (genre != null && !genre.isEmpty()) {
-                if (!songsByGenre.containsKey(genre)) {
-                    songsByGenre.put(genre, new ArrayList<>());
-                }
-                songsByGenre.get(genre).add(song);
-            }
+    // a song left the library: drop it from its genre
+    private void songRemoved(Song song) {
+        libraryChanged();
+        storeRating(song, 0);
+        if (sortedSongs != null) {
+            writableSorted().remove(song);
         }
+        String genre = genreOf.get(song);
+        if (genre == null) {
+            return;
+        }
+        SongSequence songs = writableGenre(genre);
+        genreOf.remove(song);
+        songs.remove(song);
+        if (songs.size() == 0) {
+            songsByGenre.remove(genre);
+            ownGenres.remove(genre);
+        }
+    }
 
-        // Create or update playlists for genres with at least 10 songs
-        for (Map.Entry<String, List<Song>> entry : songsByGenre.entrySet()) {
-            String genre = entry.getKey();
-            List<Song> songs = entry.getValue();
-
-            if (songs.size() >= 10) {
-                String playlistName = genre + " Mix";
-                PlayList genrePlaylist = searchPlayListByTitle(playlistName);
-
-                if (genrePlaylist == null) {
-                    createPlayList(playlistName);
-                    genrePlaylist = searchPlayListByTitle(playlistName);
-                }
-
-                if (genrePlaylist != null) {
-                    genrePlaylist.getSongs().clear();
-                    for (Song song : songs) {
-                        genrePlaylist.addSong(song);
-                    }
-                }
-            }
+    // file a song under its current genre, if it has one
+    private void fileUnderGenre(Song song) {
+        String genre = song.getGenre();
+        if (genre != null && !genre.isEmpty()) {
+            writableGenre(genre).add(song);
+            genreOf.put(song, genre);
         }
     }
 
@@ -446,24 +890,31 @@ public class LibraryModel implements Serializable {
      * @return Sorted list of songs
      */
     public List<Song> getSortedSongs(String sortBy) {
-        List<Song> sortedSongs = new ArrayList<>(library);
+        return getSortedSongs(sortBy, Integer.MAX_VALUE);
+    }
 
-        switch (sortBy.toLowerCase()) {
-            case "title":
-                sortedSongs.sort(Comparator.comparing(Song::getTitle));
-                break;
-            case "artist":
-                sortedSongs.sort(Comparator.comparing(Song::getArtist));
-                break;
-            case "rating":
-                sortedSongs.sort(Comparator.comparing(Song::getRating).reversed());
-                break;
-            default:
-                // No sorting
-                break;
+    /**
+     * Get the first songs sorted by specified criteria, e.g. one page of a
+     * listing, without sorting the whole library
+     * @param sortBy "title", "artist", or "rating"; songs with the same
+     *               value are in the order they were added
+     * @param limit maximum number of songs
+     * @return Sorted list of songs, in library order if sortBy is unknown
+     */
+    public List<Song> getSortedSongs(String sortBy, int limit) {
+        if (sortedSongs == null) {
+            sortedSongs = new SortedSongs(library.toList(), this::ratingOf);
         }
-
-        return sortedSongs;
+        List<Song> songs = sortedSongs.first(sortBy.toLowerCase(), limit);
+        if (songs == null) {
+            // No sorting
+            songs = new ArrayList<>();
+            Iterator<Song> it = library.iterator();
+            while (it.hasNext() && songs.size() < limit) {
+                songs.add(it.next());
+            }
+        }
+        return songs;
     }
 
     /**
@@ -472,16 +923,32 @@ public class LibraryModel implements Serializable {
      * @return true if removed, false otherwise
      */
     public boolean removeSongFromLibrary(Song song) {
-        if (library.remove(song)) {
+        return removeSong(song);
+    }
+
+    private boolean removeSong(Song song) {
+        // the library's own instance carries the id the statistics use
+        song = library.get(song);
+        if (song != null) {
+            writableLibrary().remove(song);
+            songRemoved(song);
             // Also remove from favorites
-            favorites.remove(song);
-            // Remove from play counts
-            playCount.remove(song);
-            // Remove from recently played
-            recentlyPlayed.remove(song);
-            // Remove from all playlists
-            for (PlayList playlist : playLists) {
-                playlist.getSongs().remove(song);
+            if (marks.isFavorite(song.getId())) {
+                writableMarks().setFavorite(song.getId(), false);
+                writableFavorites().remove(song);
+            }
+            // Remove from play counts and recently played
+            if (playStats.song(song.getId()) != null) {
+                writableStats().remove(song);
+            }
+            // Remove from the playlists holding it
+            int[] holders = playListsOf.get(song);
+            if (holders != null) {
+                writablePlayLists();
+                playListsOf.remove(song);
+                for (int index : holders) {
+                    writablePlayList(index).getSongs().remove(song);
+                }
             }
             return true;
         }
@@ -503,11 +970,52 @@ public class LibraryModel implements Serializable {
             }
         }
 
-        for (Song song : songsToRemove) {
-            removeSongFromLibrary(song);
-        }
+        return removeSongs(songsToRemove);
+    }
+
+    /**
+     * Remove many songs from the library at once, together with their
+     * favorite marks, play counts, history entries and playlist entries.
+     * Every playlist holding a removed song is walked once for the whole
+     * set, not once per song, and other playlists are not walked at all
+     * @param songs songs to remove; songs not in the library are skipped
+     * @return Number of songs removed
+     */
+    public int removeSongsFromLibrary(Collection<Song> songs) {
+        return removeSongs(songs);
+    }
 
-        return songsToRemove.size();
+    private int removeSongs(Collection<Song> songs) {
+        Set<Song> removed = new HashSet<>();
+        Set<Integer> holders = new TreeSet<>();
+        for (Song given : songs) {
+            Song song = library.get(given);
+            if (song == null) {
+                continue;
+            }
+            writableLibrary().remove(song);
+            removed.add(song);
+            songRemoved(song);
+            if (marks.isFavorite(song.getId())) {
+                writableMarks().setFavorite(song.getId(), false);
+                writableFavorites().remove(song);
+            }
+            if (playStats.song(song.getId()) != null) {
+                writableStats().remove(song);
+            }
+            int[] lists = playListsOf.get(song);
+            if (lists != null) {
+                writablePlayLists();
+                playListsOf.remove(song);
+                for (int index : lists) {
+                    holders.add(index);
+                }
+            }
+        }
+        for (int index : holders) {
+            writablePlayList(index).getSongs().removeIf(removed::contains);
+        }
+        return removed.size();
     }
 
     /**
@@ -525,12 +1033,90 @@ public class LibraryModel implements Serializable {
         return result;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("playLists", playLists);
+        fields.put("favorites", new ArrayList<>(favorites.toList()));
+        fields.put("library", new ArrayList<>(library.toList()));
+        Map<Song, Integer> playCount = new LinkedHashMap<>();
+        playStats.playCounts(playCount);
+        fields.put("playCount", playCount);
+        fields.put("recentlyPlayed", new LinkedList<>(playStats.recent()));
+        fields.put("recentLimit", playStats.getRecentLimit());
+        fields.put("userListsOnly", true);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        playLists = (List<PlayList>) fields.get("playLists", null);
+        List<Song> songs = (List<Song>) fields.get("library", null);
+        library = new SongSequence();
+        marks = new SongMarks();
+        // every song gets a fresh id on load, so equal songs must be one
+        // instance, the library's own, which older files did not always store
+        Map<Song, Song> instances = new HashMap<>();
+        if (songs != null) {
+            for (Song song : songs) {
+                if (library.add(song)) {
+                    instances.put(song, song);
+                    storeRating(song, song.getRating());
+                }
+            }
+        }
+        favorites = new SongSequence();
+        for (Song song : (List<Song>) fields.get("favorites", null)) {
+            addFavorite(instances.computeIfAbsent(song, k -> k));
+        }
+        Map<Song, Integer> playCount = new LinkedHashMap<>();
+        Map<Song, Integer> saved = (Map<Song, Integer>) fields.get("playCount", null);
+        if (saved != null) {
+            for (Map.Entry<Song, Integer> entry : saved.entrySet()) {
+                playCount.merge(instances.computeIfAbsent(entry.getKey(), k -> k),
+                        entry.getValue(), Integer::sum);
+            }
+        }
+        // the stored history is most recent first; data saved before the
+        // limit was configurable has no limit and used a fixed 10
+        int recentLimit = fields.get("recentLimit", 0);
+        if (recentLimit < 1) {
+            recentLimit = DEFAULT_RECENT_LIMIT;
+        }
+        List<Song> recent = new ArrayList<>();
+        List<Song> savedRecent = (List<Song>) fields.get("recentlyPlayed", null);
+        if (savedRecent != null) {
+            for (Song song : savedRecent) {
+                recent.add(instances.computeIfAbsent(song, k -> k));
+            }
+        }
+        playStats = new PlayStats(recentLimit, playCount, recent);
+        refreshAutoPlaylists();
+        // auto-generated playlists were saved as plain copies before they
+        // were computed on read; the computed ones replace them. A genre mix
+        // was only saved for a genre with enough songs in the saved library,
+        // so any other "<X> Mix" list is the user's own. Newer files only
+        // hold the user's lists, whatever their names
+        if (!fields.get("userListsOnly", false)) {
+            playLists.removeIf(playList -> isAutoPlayListName(playList.getListName()));
+        }
+        indexPlayLists();
+        createAutoPlayLists();
+    }
+
+    private boolean isAutoPlayListName(String name) {
+        if (name.equals(MOST_PLAYED) || name.equals(RECENTLY_PLAYED) || name.equals(FAVORITES)) {
+            return true;
+        }
+        return isGenreMix(name);
+    }
+
     /**
      * Create a RandomPlaylist iterator for shuffle play
      * @return A RandomPlaylistIterator
      */
     public RandomPlaylistIterator createRandomPlaylist() {
-        return new RandomPlaylistIterator(library);
+        return new RandomPlaylistIterator(getLibrary());
     }
 
     /**
@@ -1,11 +1,35 @@
 package model;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /*
  * Author: Jifei Wang
@@ -13,62 +37,463 @@ import java.util.List;
  */
 public class MusicStore {
 
-    private List<Album> albums;
+    private static final Path ALBUM_DIR = Paths.get("albums");
+    private static final String SNAPSHOT_NAME = "catalog.snapshot";
+    private static final long WATCH_SETTLE_MILLIS = 200;
+    private static final int TRACK_CACHE_ALBUMS = 1024;
+    // writes the snapshots of reloaded versions, one at a time
+    private static final ExecutorService SNAPSHOT_WRITER = Executors.newSingleThreadExecutor(task -> {
+        Thread writer = new Thread(task, "catalog-snapshot-writer");
+        writer.setDaemon(true);
+        return writer;
+    });
+    // taken while writing any snapshot, so two writes never share the temporary file
+    private static final Object SNAPSHOT_LOCK = new Object();
+
+    // directory holding albums.txt and the album files
+    private final Path albumDir;
+    // binary snapshot written next to the album directory
+    private final Path snapshotFile;
+    // number of shards that scan queries are split into
+    private final int shardCount;
+    // the current catalog version, replaced as a whole on every reload
+    private volatile Catalog catalog;
+    // watches the album directory, null when not watching
+    private WatchService watchService;
+    // holds the tracks of lazily loaded albums, null when tracks load eagerly
+    private final TrackCache trackCache;
+    // reloaded version waiting for the snapshot writer, null if none
+    private final AtomicReference<Catalog> pendingSnapshot = new AtomicReference<>();
 
     /**
      * Default constructor
      */
     public MusicStore() {
-        albums = new ArrayList<>();
+        this(false);
+    }
+
+    /**
+     * Constructor
+     * @param lazyTracks true to only record the track titles of every album
+     *                   up front and create its songs on first use, keeping
+     *                   at most TRACK_CACHE_ALBUMS song lists in memory. Every
+     *                   search works as with eager loading; song titles are
+     *                   indexed by album instead of by song
+     */
+    public MusicStore(boolean lazyTracks) {
+        this(ALBUM_DIR, lazyTracks, 1);
+    }
+
+    /**
+     * Constructor
+     * @param albumDir directory holding albums.txt and the album files; the
+     *                 catalog snapshot is kept next to it
+     * @param lazyTracks true to create each album's songs on first use, see
+     *                   MusicStore(boolean)
+     * @param shardCount number of shards the albums are partitioned into by
+     *                   artist; queries that scan every album run one shard
+     *                   per fork-join worker. 1 scans on the calling thread
+     */
+    public MusicStore(Path albumDir, boolean lazyTracks, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shard count must be at least 1: " + shardCount);
+        }
+        this.albumDir = albumDir;
+        this.snapshotFile = albumDir.resolveSibling(SNAPSHOT_NAME);
+        this.shardCount = shardCount;
+        trackCache = lazyTracks ? new TrackCache(TRACK_CACHE_ALBUMS) : null;
         loadAlbum();
     }
 
-    private Album readAlbum(String filename) {
-        BufferedReader br = null;
-        String line = "";
+    /**
+     * Get the music store shared by every user session in this process.
+     * It is loaded on first use; call loadAlbum() on it to publish a reload.
+     * Run with -Dmusicstore.lazyTracks=true to load album tracks on demand,
+     * and with -Dmusicstore.shards=N to split scan queries into N shards
+     * @return shared music store
+     */
+    public static MusicStore getInstance() {
+        return SharedHolder.INSTANCE;
+    }
+
+    // lazily initialized on first getInstance() call, thread-safe by class loading
+    private static class SharedHolder {
+        private static final MusicStore INSTANCE = new MusicStore(ALBUM_DIR,
+                Boolean.getBoolean("musicstore.lazyTracks"),
+                Math.max(1, Integer.getInteger("musicstore.shards", 1)));
+    }
+
+    /**
+     * Parse one album file: a header line "title,artist,genre,year"
+     * followed by one song title per line. In lazy mode the song titles are
+     * only recorded and the songs are left to the track cache
+     * @param lines lines of the album file, at least the header
+     * @param firstSongId first id of the block reserved for the songs
+     * @return album object
+     * @throws IOException if the header is malformed
+     */
+    private Album parseAlbum(List<String> lines, int firstSongId) throws IOException {
+        // split the header line of the album file
+        String[] items = lines.get(0).split(",");
+        if (items.length < 4) {
+            throw new IOException("malformed album header: " + lines.get(0));
+        }
+        String albumTitle = items[0];
+        String artist = items[1];
+        String genre = items[2];
+        int year;
+        try {
+            year = Integer.parseInt(items[3].trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed album year: " + items[3]);
+        }
+        if (trackCache != null) {
+            List<String> titles = new ArrayList<>(lines.size() - 1);
+            for (int i = 1; i < lines.size(); i++) {
+                titles.add(lines.get(i).trim());
+            }
+            return new Album(albumTitle, artist, genre, year, titles, firstSongId, trackCache);
+        }
+        Album album = new Album(albumTitle, artist, genre, year);
+        // get all lines of songs
+        for (int i = 1; i < lines.size(); i++) {
+            album.addSong(new Song(lines.get(i).trim(), artist, albumTitle, genre,
+                    firstSongId + i - 1));
+        }
+        return album;
+    }
+
+    /**
+     * Load the album from the specified file, replacing any albums
+     * loaded before and rebuilding the search index.
+     * The new catalog version is built aside and published in one step, so
+     * concurrent readers see either the old or the new catalog, never a mix.
+     * If the binary catalog snapshot is still up to date it is used instead
+     * of the text files. Otherwise album files are read in parallel on the
+     * common fork-join pool; the album list keeps the order of albums.txt,
+     * files that cannot be read are skipped and reported through
+     * getLoadErrors(), and a fresh snapshot is written for the next start
+     */
+    public synchronized void loadAlbum() {
+        boolean lazy = trackCache != null;
+        List<Path> files = new ArrayList<>();
+        Map<Path, CatalogSnapshot.Stamp> stamps = new HashMap<>();
+        // the snapshot holds every track, so lazy mode reads the headers instead
+        List<Album> cached = lazy ? null : CatalogSnapshot.read(snapshotFile, files, stamps);
+        if (cached != null) {
+            catalog = new Catalog(cached, files, stamps, new ArrayList<>(), true, false, shardCount);
+            return;
+        }
+
+        List<Album> albums = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        files.clear();
+        stamps.clear();
+        loadFromText(null, Collections.emptySet(), albums, files, stamps, errors);
+        Catalog loaded = new Catalog(albums, files, stamps, errors, false, lazy, shardCount);
+        catalog = loaded;
+        saveSnapshot(loaded);
+    }
+
+    /**
+     * Apply changes of album files without a full reload: only the given
+     * files are parsed, albums.txt only when it is one of them, and every
+     * other album is reused from the current catalog. The next catalog
+     * version is derived from the current one by patching its indexes and
+     * published in one step; its snapshot is written in the background
+     * @param changedFiles album files that were added, modified or deleted
+     */
+    public synchronized void reloadChangedAlbums(Collection<Path> changedFiles) {
+        Set<Path> changed = new HashSet<>();
+        for (Path file : changedFiles) {
+            changed.add(file.normalize());
+        }
+        Catalog current = catalog;
+        List<Album> albums = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        Map<Path, CatalogSnapshot.Stamp> stamps = new HashMap<>();
+        List<String> errors = new ArrayList<>();
+        if (changed.contains(albumDir.resolve("albums.txt").normalize())
+                || !current.getLoadErrors().isEmpty()) {
+            // the list changed, or files that failed before may load now
+            loadFromText(current, changed, albums, files, stamps, errors);
+        } else {
+            // the list is the same, so every listed file is in the catalog
+            // and keeps its position
+            Path[] paths = current.getFiles().toArray(new Path[0]);
+            Album[] loaded = current.getAlbums().toArray(new Album[0]);
+            for (int i = 0; i < paths.length; i++) {
+                if (changed.contains(paths[i])) {
+                    loaded[i] = null;
+                }
+            }
+            loadFiles(paths, loaded, new String[paths.length], albums, files, stamps, errors);
+        }
+        Catalog next = current.update(albums, files, stamps, errors);
+        catalog = next;
+        saveSnapshotLater(next);
+    }
+
+    /**
+     * Parse albums.txt and the album files it lists
+     * @param previous catalog to reuse unchanged albums from, or null
+     * @param changed album files that must be parsed even if previous has them
+     * @param albums list to fill with the loaded albums
+     * @param files list to fill with the file of every loaded album
+     * @param stamps map to fill with the stamp of every file read
+     * @param loadErrors list to fill with one message per skipped file
+     */
+    private void loadFromText(Catalog previous, Set<Path> changed, List<Album> albums,
+                              List<Path> files, Map<Path, CatalogSnapshot.Stamp> stamps,
+                              List<String> loadErrors) {
+        Path listFile = albumDir.resolve("albums.txt");
+        List<String> entries;
+        try {
+            stamps.put(listFile, CatalogSnapshot.Stamp.of(listFile));
+            entries = Files.readAllLines(listFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading album list " + listFile, e);
+        }
+
+        int n = entries.size();
+        Path[] paths = new Path[n];
+        String[] errors = new String[n];
+        Set<Path> listed = new HashSet<>();
+        Set<Path> repeated = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            String[] items = entries.get(i).split(",");
+            if (items.length < 2) {
+                errors[i] = listFile + " line " + (i + 1) + ": malformed entry";
+            } else {
+                paths[i] = albumDir.resolve(items[0] + "_" + items[1] + ".txt").normalize();
+                if (!listed.add(paths[i])) {
+                    repeated.add(paths[i]);
+                }
+            }
+        }
+        // a file listed twice is read twice, as every position needs an album
+        // object of its own
+        Album[] loaded = new Album[n];
+        if (previous != null) {
+            for (int i = 0; i < n; i++) {
+                if (paths[i] != null && !changed.contains(paths[i]) && !repeated.contains(paths[i])) {
+                    loaded[i] = previous.getAlbumForFile(paths[i]);
+                }
+            }
+        }
+        loadFiles(paths, loaded, errors, albums, files, stamps, loadErrors);
+    }
+
+    /**
+     * Read album files in parallel, keeping their order. The files are read
+     * first and parsed once every album has its block of song ids, reserved
+     * in list order
+     * @param paths album files in list order, null for malformed entries
+     * @param loaded albums reused from the current catalog, null where the
+     *               file must be read
+     * @param errors message of every malformed entry, filled with the
+     *               message of every file that cannot be read
+     * @param albums list to fill with the loaded albums
+     * @param files list to fill with the file of every loaded album
+     * @param stamps map to fill with the stamp of every file read
+     * @param loadErrors list to fill with one message per skipped file
+     */
+    private void loadFiles(Path[] paths, Album[] loaded, String[] errors, List<Album> albums,
+                           List<Path> files, Map<Path, CatalogSnapshot.Stamp> stamps,
+                           List<String> loadErrors) {
+        int n = paths.length;
+        List<List<String>> lines = new ArrayList<>(Collections.nCopies(n, null));
+        CatalogSnapshot.Stamp[] stamped = new CatalogSnapshot.Stamp[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            if (paths[i] == null || loaded[i] != null) {
+                return;
+            }
+            try {
+                // stamped first, so a change during the read shows in the stamp
+                stamped[i] = CatalogSnapshot.Stamp.of(paths[i]);
+                List<String> read = Files.readAllLines(paths[i], StandardCharsets.UTF_8);
+                if (read.isEmpty()) {
+                    errors[i] = paths[i] + ": empty album file";
+                } else {
+                    lines.set(i, read);
+                }
+            } catch (NoSuchFileException e) {
+                errors[i] = paths[i] + ": file not found";
+            } catch (IOException e) {
+                errors[i] = paths[i] + ": " + e.getMessage();
+            }
+        });
+        int[] firstSongIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (lines.get(i) != null) {
+                firstSongIds[i] = Song.reserveIds(lines.get(i).size() - 1);
+            }
+        }
+        IntStream.range(0, n).parallel().forEach(i -> {
+            if (lines.get(i) == null) {
+                return;
+            }
+            try {
+                loaded[i] = parseAlbum(lines.get(i), firstSongIds[i]);
+            } catch (IOException e) {
+                errors[i] = paths[i] + ": " + e.getMessage();
+            }
+            lines.set(i, null);
+        });
+
+        for (int i = 0; i < n; i++) {
+            if (stamped[i] != null) {
+                stamps.put(paths[i], stamped[i]);
+            }
+            if (loaded[i] != null) {
+                albums.add(loaded[i]);
+                files.add(paths[i]);
+            } else {
+                loadErrors.add(errors[i]);
+                System.err.println("Error loading album: " + errors[i]);
+            }
+        }
+    }
+
+    /**
+     * Write the binary snapshot for the next start if every file loaded,
+     * the tracks were loaded eagerly and the version is still the current one
+     * @param version catalog version to save
+     */
+    private void saveSnapshot(Catalog version) {
+        if (!version.getLoadErrors().isEmpty() || trackCache != null) {
+            return;
+        }
+        List<Path> sources = new ArrayList<>();
+        sources.add(albumDir.resolve("albums.txt"));
+        sources.addAll(version.getFiles());
+        // the stamps of the reads the version came from, not of the files
+        // now, which may have changed since
+        List<CatalogSnapshot.Stamp> stamps = new ArrayList<>();
+        for (Path source : sources) {
+            CatalogSnapshot.Stamp stamp = version.getStamp(source);
+            if (stamp == null) {
+                return;
+            }
+            stamps.add(stamp);
+        }
+        synchronized (SNAPSHOT_LOCK) {
+            // a newer version writes its own snapshot
+            if (version != catalog) {
+                return;
+            }
+            try {
+                CatalogSnapshot.write(snapshotFile, version.getAlbums(), sources, stamps);
+            } catch (IOException e) {
+                System.err.println("Error saving catalog snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    // save the snapshot on the writer thread so the reload does not wait
+    // for it; of a burst of reloads only the last version is written
+    private void saveSnapshotLater(Catalog version) {
+        if (pendingSnapshot.getAndSet(version) == null) {
+            SNAPSHOT_WRITER.execute(() -> saveSnapshot(pendingSnapshot.getAndSet(null)));
+        }
+    }
+
+    /**
+     * Watch the album directory and apply added, changed or removed album
+     * files as they happen, on a background daemon thread
+     * @return true if watching started or was already running, else false
+     */
+    public synchronized boolean startWatching() {
+        if (watchService != null) {
+            return true;
+        }
         try {
-            br = new BufferedReader(new FileReader(filename));
-            line = br.readLine();
-            // split the header line of the album file
-            String[] items = line.split(",");
-            String albumTitle = items[0];
-            String artist = items[1];
-            String genre = items[2];
-            Album album = new Album(albumTitle, artist, genre, Integer.parseInt(items[3]));
-            // get all lines of songs
-            while ((line = br.readLine()) != null) {
-                album.addSong(new Song(line.trim(), artist, albumTitle));
-            }
-            return album;
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+            watchService = FileSystems.getDefault().newWatchService();
+            albumDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            System.err.println("Error watching album directory: " + e.getMessage());
+            watchService = null;
+            return false;
         }
+        WatchService service = watchService;
+        Thread watcher = new Thread(() -> watchAlbums(service), "album-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        return true;
     }
 
     /**
-     * Load the album from the specified file
-     * @return list of album object
+     * Stop watching the album directory
      */
-    public void loadAlbum() {
-        String filename = "albums/albums.txt";
+    public synchronized void stopWatching() {
+        if (watchService == null) {
+            return;
+        }
         try {
-            // read the data
-            BufferedReader br = new BufferedReader(new FileReader(filename));
-            String line = "";
-            while ((line = br.readLine()) != null) {
-                String[] items = line.split(",");
-                String albumFilename = "albums/" + items[0] + "_" + items[1] + ".txt";
-                albums.add(readAlbum(albumFilename));
-            }
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+            watchService.close();
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            System.err.println("Error closing album watcher: " + e.getMessage());
+        }
+        watchService = null;
+    }
+
+    private void watchAlbums(WatchService service) {
+        while (true) {
+            try {
+                Set<Path> changed = new HashSet<>();
+                boolean overflow = collectChanges(service.take(), changed);
+                // let a burst of writes settle before reloading
+                WatchKey key;
+                while ((key = service.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collectChanges(key, changed);
+                }
+                if (overflow) {
+                    loadAlbum();
+                } else if (!changed.isEmpty()) {
+                    reloadChangedAlbums(changed);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Error reloading albums: " + e.getMessage());
+            }
         }
     }
 
+    // add the album text files of the key's events, true if events were lost
+    private boolean collectChanges(WatchKey key, Set<Path> changed) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else {
+                Path file = albumDir.resolve((Path) event.context()).normalize();
+                if (file.toString().endsWith(".txt")) {
+                    changed.add(file);
+                }
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    /**
+     * Check if the last load came from the binary catalog snapshot
+     * @return true if the snapshot was used, false if the text files were parsed
+     */
+    public boolean isLoadedFromSnapshot() {
+        return catalog.isFromSnapshot();
+    }
+
+    /**
+     * Get the errors reported by the last call to loadAlbum
+     * @return one message per album file that could not be loaded
+     */
+    public List<String> getLoadErrors() {
+        return catalog.getLoadErrors();
+    }
+
     /*
     public static void main(String[] args) {
         model.MusicStore store = new model.MusicStore();
@@ -92,15 +517,7 @@ public class MusicStore {
      * @return list of song objects
      */
     public List<Song> searchSongByTitle(String title) {
-        List<Song> songs = new ArrayList<>();
-        for (Album album : albums) {
-            for (Song song : album.getSongs()) {
-                if (song.getTitle().equals(title)) {
-                    songs.add(song);
-                }
-            }
-        }
-        return songs;
+        return catalog.songsByTitle(title);
     }
 
     /**
@@ -109,15 +526,7 @@ public class MusicStore {
      * @return list of song objects
      */
     public List<Song> searchSongByArtist(String artist) {
-        List<Song> songs = new ArrayList<>();
-        for (Album album : albums) {
-            for (Song song : album.getSongs()) {
-                if (song.getArtist().equals(artist)) {
-                    songs.add(song);
-                }
-            }
-        }
-        return songs;
+        return catalog.getIndex().songsByArtist(artist);
     }
 
     /**
@@ -126,13 +535,7 @@ public class MusicStore {
      * @return list of album objects
      */
     public List<Album> searchAlbumByTitle(String title) {
-        List<Album> res = new ArrayList<>();
-        for (Album album : albums) {
-            if (album.getTitle().equals(title)) {
-                res.add(album);
-            }
-        }
-        return res;
+        return catalog.getIndex().albumsByTitle(title);
     }
 
     /**
@@ -141,13 +544,120 @@ public class MusicStore {
      * @return list of album objects
      */
     public List<Album> searchAlbumByArtist(String artist) {
-        List<Album> res = new ArrayList<>();
-        for (Album album : albums) {
-            if (album.getArtist().equals(artist)) {
-                res.add(album);
+        return catalog.getIndex().albumsByArtist(artist);
+    }
+
+    /**
+     * Search songs whose title, artist or album contains a keyword, ignoring
+     * case. Every album is scanned, one shard per fork-join worker
+     * @param keyword text to look for
+     * @return list of song objects in catalog order
+     */
+    public List<Song> searchSongByKeyword(String keyword) {
+        String key = keyword.toLowerCase(Locale.ROOT);
+        return searchSongs(song -> song.getTitle().toLowerCase(Locale.ROOT).contains(key)
+                || song.getArtist().toLowerCase(Locale.ROOT).contains(key)
+                || song.getAlbum().toLowerCase(Locale.ROOT).contains(key));
+    }
+
+    /**
+     * Search songs matching any condition. Every album is scanned, one
+     * shard per fork-join worker, and the result is in catalog order
+     * whatever the shard count
+     * @param filter song condition; it may be called from several threads
+     * @return list of song objects in catalog order
+     */
+    public List<Song> searchSongs(Predicate<Song> filter) {
+        return catalog.getShards().filterSongs(filter);
+    }
+
+    /**
+     * Search albums matching any condition. Every album is scanned, one
+     * shard per fork-join worker, and the result is in catalog order
+     * whatever the shard count
+     * @param filter album condition; it may be called from several threads
+     * @return list of album objects in catalog order
+     */
+    public List<Album> searchAlbums(Predicate<Album> filter) {
+        return catalog.getShards().filterAlbums(filter);
+    }
+
+    /**
+     * Get the number of shards scan queries are split into
+     * @return shard count
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Search songs whose title is close to the input, tolerating typos,
+     * case and missing accents
+     * @param title input song title, possibly misspelled
+     * @param limit maximum number of songs
+     * @return list of song objects, closest titles first
+     */
+    public List<Song> fuzzySearchSongByTitle(String title, int limit) {
+        Catalog current = catalog;
+        return collectSongs(current.getSongTitleFuzzy().search(title, limit),
+                current::songsByTitle, limit);
+    }
+
+    /**
+     * Search songs whose artist is close to the input, tolerating typos,
+     * case and missing accents
+     * @param artist input song artist, possibly misspelled
+     * @param limit maximum number of songs
+     * @return list of song objects, closest artists first
+     */
+    public List<Song> fuzzySearchSongByArtist(String artist, int limit) {
+        Catalog current = catalog;
+        return collectSongs(current.getArtistFuzzy().search(artist, limit),
+                current.getIndex()::songsByArtist, limit);
+    }
+
+    private static List<Song> collectSongs(List<String> terms,
+                                           Function<String, List<Song>> lookup, int limit) {
+        List<Song> songs = new ArrayList<>();
+        for (String term : terms) {
+            for (Song song : lookup.apply(term)) {
+                if (songs.size() == limit) {
+                    return songs;
+                }
+                songs.add(song);
             }
         }
-        return res;
+        return songs;
+    }
+
+    /**
+     * Complete a song title prefix, ignoring case
+     * @param prefix beginning of the song title
+     * @param limit maximum number of completions
+     * @return song titles, the ones shared by most songs first
+     */
+    public List<String> completeSongTitle(String prefix, int limit) {
+        return catalog.getSongTitlePrefixes().complete(prefix, limit);
+    }
+
+    /**
+     * Complete an album title prefix, ignoring case
+     * @param prefix beginning of the album title
+     * @param limit maximum number of completions
+     * @return album titles, the ones with most songs first
+     */
+    public List<String> completeAlbumTitle(String prefix, int limit) {
+        return catalog.getAlbumTitlePrefixes().complete(prefix, limit);
+    }
+
+    /**
+     * Complete an artist name prefix, ignoring case
+     * @param prefix beginning of the artist name
+     * @param limit maximum number of completions
+     * @return artist names, the ones with most songs first
+     */
+    public List<String> completeArtist(String prefix, int limit) {
+        return catalog.getArtistPrefixes().complete(prefix, limit);
     }
 
     /**
@@ -156,18 +666,35 @@ public class MusicStore {
      */
     public List<Song> getAllSongs() {
         List<Song> songs = new ArrayList<>();
-        for (Album album : albums) {
-            songs.addAll(album.getSongs());
+        for (Album album : catalog.getAlbums()) {
+            songs.addAll(album.scanSongs());
         }
         return songs;
     }
 
+    /**
+     * Stream every song of the catalog without copying them into a list.
+     * The stream reads one catalog version and splits well for parallel use
+     * @return sequential song stream, call parallel() for a parallel one
+     */
+    public Stream<Song> songs() {
+        return StreamSupport.stream(catalog.songSpliterator(), false);
+    }
+
+    /**
+     * Stream every album of the catalog without copying them into a list
+     * @return sequential album stream, call parallel() for a parallel one
+     */
+    public Stream<Album> albums() {
+        return catalog.getAlbums().stream();
+    }
+
     /**
      * Get all albums
-     * @return album list
+     * @return unmodifiable album list of the current catalog version
      */
     public List<Album> getAlbums() {
-        return albums;
+        return catalog.getAlbums();
     }
 
     /**
@@ -176,64 +703,81 @@ public class MusicStore {
      * @return The album containing the song, or null if not found
      */
     public Album getAlbumForSong(Song song) {
-        for (Album album : albums) {
-            if (album.getTitle().equals(song.getAlbum()) &&
-                    album.getArtist().equals(song.getArtist())) {
-                return album;
-            }
-        }
-
-        // Try searching by song title and artist
-        for (Album album : albums) {
-            for (Song albumSong : album.getSongs()) {
-                if (albumSong.getTitle().equals(song.getTitle()) &&
-                        albumSong.getArtist().equals(song.getArtist())) {
-                    return album;
-                }
-            }
-        }
-
-        return null;
+        return catalog.getIndex().albumForSong(song);
     }
 
     /**
-     * Search songs by genre
+     * Search songs by genre, ignoring case
      * @param genre Genre to search for
-     * @return List of songs matching the genre
+     * @return Read-only list of songs matching the genre
      */
     public List<Song> searchSongsByGenre(String genre) {
-        List<Song> result = new ArrayList<>();
-        for (Album album : albums) {
-            if (album.getGenre().equalsIgnoreCase(genre)) {
-                result.addAll(album.getSongs());
-            }
-        }
-        return result;
+        return catalog.getIndex().songsByGenre(genre);
+    }
+
+    /**
+     * Search albums by genre, ignoring case
+     * @param genre Genre to search for
+     * @return Read-only list of albums matching the genre
+     */
+    public List<Album> searchAlbumsByGenre(String genre) {
+        return catalog.getIndex().albumsByGenre(genre);
+    }
+
+    /**
+     * Get the number of songs of a genre, ignoring case
+     * @param genre Genre to count
+     * @return number of songs
+     */
+    public int getGenreSongCount(String genre) {
+        return catalog.getIndex().songCountByGenre(genre);
+    }
+
+    /**
+     * Get the number of albums of a genre, ignoring case
+     * @param genre Genre to count
+     * @return number of albums
+     */
+    public int getGenreAlbumCount(String genre) {
+        return catalog.getIndex().albumsByGenre(genre).size();
     }
 
     /**
      * Get all available genres
-     * @return List of unique genres
+     * @return Read-only list of unique genres in load order
      */
     public List<String> getAllGenres() {
-        List<String> genres = new ArrayList<>();
-        for (Album album : albums) {
-            String genre = album.getGenre();
-            if (!genres.contains(genre)) {
-                genres.add(genre);
-            }
-        }
-        return genres;
+        return catalog.getIndex().genres();
     }
 
     /**
-     * Add genre information to a song
+     * Add genre information to a song; catalog songs already carry theirs
      * @param song The song to add genre info to
      */
     public void addGenreInfoToSong(Song song) {
         Album album = getAlbumForSong(song);
-        if (album != null) {
+        if (album != null && !song.isShared()) {
             song.setGenre(album.getGenre());
         }
     }
+
+    /**
+     * Add genre information to many songs in one pass
+     * @param songs The songs to add genre info to
+     * @return number of songs whose album was found
+     */
+    public int addGenreInfo(Collection<Song> songs) {
+        CatalogIndex current = catalog.getIndex();
+        int found = 0;
+        for (Song song : songs) {
+            Album album = current.albumForSong(song);
+            if (album != null) {
+                if (!song.isShared()) {
+                    song.setGenre(album.getGenre());
+                }
+                found++;
+            }
+        }
+        return found;
+    }
 }
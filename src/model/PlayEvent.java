@@ -0,0 +1,44 @@
+package model;
+
+/**
+ * This class represents one play of a song, e.g. an imported scrobble,
+ * to be recorded with LibraryModel.recordPlays
+ */
+public class PlayEvent {
+    private final Song song;
+    private final long time;
+
+    /**
+     * Constructor for a play happening now
+     * @param song played song
+     */
+    public PlayEvent(Song song) {
+        this(song, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructor
+     * @param song played song
+     * @param time when the song was played, in milliseconds since the epoch
+     */
+    public PlayEvent(Song song, long time) {
+        this.song = song;
+        this.time = time;
+    }
+
+    /**
+     * Get the played song
+     * @return played song
+     */
+    public Song getSong() {
+        return song;
+    }
+
+    /**
+     * Get the play time
+     * @return play time in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,458 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps the listening statistics of one library: the play count
+ * of every played song, the songs ranked by play count and the recently
+ * played history.
+ *
+ * Everything is indexed by song id. The ids are dense per catalog, and a
+ * library only plays a few of them, so the data sits in pages of 64 ids
+ * that are allocated on the first play of one of their songs; the
+ * primitive data of a song is packed in one int array per page, and the
+ * pages are grouped in blocks of 64. A copy shares every block and page
+ * with the statistics it was made from until it changes one, so copying
+ * costs the block array and the count maps, and a play copies the few
+ * pages it touches. Statistics must not be changed any more once a copy
+ * has been made from them. Two linked
+ * lists run through the ids: the ranking, ordered by play count with songs
+ * of the same count in the order they reached it, and the history, most
+ * recent first. The first and last id of every count are kept in maps, so
+ * a play moves a song to the end of the next count in O(1). Recording a
+ * play neither hashes the song nor allocates once its page exists
+ */
+class PlayStats {
+
+    private static final int NONE = -1;
+    private static final int PAGE_BITS = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int BLOCK_BITS = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    // int fields of a song within its page
+    private static final int COUNT = 0;
+    private static final int RANK_PREV = 1;
+    private static final int RANK_NEXT = 2;
+    private static final int RECENT_PREV = 3;
+    private static final int RECENT_NEXT = 4;
+    private static final int IN_RECENT = 5;
+    private static final int FIELDS = 6;
+
+    // block -> page -> played songs and their fields, null until first used
+    private Song[][][] songBlocks = new Song[0][][];
+    private int[][][] dataBlocks = new int[0][][];
+    // blocks and pages this object created or copied, which it may change
+    // in place
+    private boolean[] ownedBlocks = new boolean[0];
+    private boolean[][] ownedPages = new boolean[0][];
+    private int rankHead = NONE;
+    private int rankTail = NONE;
+    // play count -> first and last id with that count
+    private IntIntMap firstOfCount = new IntIntMap();
+    private IntIntMap lastOfCount = new IntIntMap();
+    private int recentHead = NONE;
+    private int recentTail = NONE;
+    private int recentSize;
+    private int recentLimit;
+
+    /**
+     * Constructor
+     * @param recentLimit maximum number of songs in the history
+     */
+    PlayStats(int recentLimit) {
+        this.recentLimit = recentLimit;
+    }
+
+    /**
+     * Copy constructor: the blocks and pages are shared with the base
+     * statistics until this copy needs to change them
+     * @param base statistics to copy
+     */
+    PlayStats(PlayStats base) {
+        songBlocks = base.songBlocks.clone();
+        dataBlocks = base.dataBlocks.clone();
+        ownedBlocks = new boolean[songBlocks.length];
+        ownedPages = new boolean[songBlocks.length][];
+        rankHead = base.rankHead;
+        rankTail = base.rankTail;
+        firstOfCount = new IntIntMap(base.firstOfCount);
+        lastOfCount = new IntIntMap(base.lastOfCount);
+        recentHead = base.recentHead;
+        recentTail = base.recentTail;
+        recentSize = base.recentSize;
+        recentLimit = base.recentLimit;
+    }
+
+    /**
+     * Restore statistics
+     * @param recentLimit maximum number of songs in the history
+     * @param playCounts play count of every played song; songs with the
+     *                   same id must be the same instance
+     * @param recentSongs history, most recent first
+     */
+    PlayStats(int recentLimit, Map<Song, Integer> playCounts, List<Song> recentSongs) {
+        this(recentLimit);
+        List<Map.Entry<Song, Integer>> entries = new ArrayList<>(playCounts.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<Song, Integer> entry : entries) {
+            int count = entry.getValue();
+            if (count <= 0) {
+                continue;
+            }
+            // appended lowest so far, so the ranking stays sorted
+            int id = enter(entry.getKey());
+            set(id, COUNT, count);
+            insertRankAfter(id, rankTail);
+            if (!firstOfCount.containsKey(count)) {
+                firstOfCount.put(count, id);
+            }
+            lastOfCount.put(count, id);
+        }
+        for (int i = recentSongs.size() - 1; i >= 0; i--) {
+            touch(enter(recentSongs.get(i)));
+        }
+    }
+
+    /**
+     * Record one play of a song
+     * @param song played song, the library's own instance
+     */
+    void play(Song song) {
+        int id = enter(song);
+        increment(id);
+        touch(id);
+    }
+
+    /**
+     * Record a batch of plays at once. The ranking is merged once for the
+     * whole batch instead of moved play by play, and only the songs that
+     * stay in the history are moved in it
+     * @param played distinct played songs, by their last play, oldest first
+     * @param plays number of plays of each song
+     * @param n number of songs
+     */
+    void playAll(Song[] played, int[] plays, int n) {
+        Integer[] order = new Integer[n];
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            int id = enter(played[i]);
+            if (get(id, COUNT) > 0) {
+                unlinkRank(id);
+            }
+            set(id, COUNT, get(id, COUNT) + plays[i]);
+            ids[i] = id;
+            order[i] = i;
+        }
+        // a song reached its new count with its last play, so batch songs
+        // with the same count rank by last play, after the songs already there
+        Arrays.sort(order, (a, b) -> Integer.compare(get(ids[b], COUNT), get(ids[a], COUNT)));
+        firstOfCount = new IntIntMap();
+        lastOfCount = new IntIntMap();
+        int prev = NONE;
+        int old = rankHead;
+        int j = 0;
+        while (old != NONE || j < n) {
+            int id;
+            if (j == n || (old != NONE && get(old, COUNT) >= get(ids[order[j]], COUNT))) {
+                id = old;
+                old = get(old, RANK_NEXT);
+            } else {
+                id = ids[order[j++]];
+            }
+            set(id, RANK_PREV, prev);
+            if (prev == NONE) {
+                rankHead = id;
+            } else {
+                set(prev, RANK_NEXT, id);
+            }
+            prev = id;
+            int count = get(id, COUNT);
+            if (!firstOfCount.containsKey(count)) {
+                firstOfCount.put(count, id);
+            }
+            lastOfCount.put(count, id);
+        }
+        if (prev == NONE) {
+            rankHead = NONE;
+        } else {
+            set(prev, RANK_NEXT, NONE);
+        }
+        rankTail = prev;
+        for (int i = Math.max(0, n - recentLimit); i < n; i++) {
+            touch(ids[i]);
+        }
+    }
+
+    /**
+     * Get a played song by its id
+     * @param id song id
+     * @return the song recorded under the id, or null if it was not played
+     */
+    Song song(int id) {
+        int block = id >>> (PAGE_BITS + BLOCK_BITS);
+        if (block >= songBlocks.length || songBlocks[block] == null) {
+            return null;
+        }
+        Song[] page = songBlocks[block][(id >>> PAGE_BITS) & (BLOCK_SIZE - 1)];
+        return page == null ? null : page[id & (PAGE_SIZE - 1)];
+    }
+
+    /**
+     * Get the play count of a song
+     * @param song input song, the library's own instance
+     * @return number of plays
+     */
+    int count(Song song) {
+        return song(song.getId()) == song ? get(song.getId(), COUNT) : 0;
+    }
+
+    /**
+     * Forget a song: its play count and its place in the history
+     * @param song song to remove, the library's own instance
+     */
+    void remove(Song song) {
+        int id = song.getId();
+        if (song(id) != song) {
+            return;
+        }
+        if (get(id, COUNT) > 0) {
+            leaveCount(id);
+            unlinkRank(id);
+            set(id, COUNT, 0);
+        }
+        if (get(id, IN_RECENT) != 0) {
+            unlinkRecent(id);
+        }
+        writable(id);
+        songPage(id)[id & (PAGE_SIZE - 1)] = null;
+    }
+
+    /**
+     * Get the most played songs
+     * @param k maximum number of songs
+     * @return songs by play count, highest first
+     */
+    List<Song> top(int k) {
+        List<Song> res = new ArrayList<>();
+        for (int id = rankHead; id != NONE && res.size() < k; id = get(id, RANK_NEXT)) {
+            res.add(song(id));
+        }
+        return res;
+    }
+
+    /**
+     * Get every played song with its play count
+     * @param out map to fill
+     */
+    void playCounts(Map<Song, Integer> out) {
+        for (int id = rankHead; id != NONE; id = get(id, RANK_NEXT)) {
+            out.put(song(id), get(id, COUNT));
+        }
+    }
+
+    /**
+     * Get the history
+     * @return songs, most recent first
+     */
+    List<Song> recent() {
+        List<Song> res = new ArrayList<>(recentSize);
+        for (int id = recentHead; id != NONE; id = get(id, RECENT_NEXT)) {
+            res.add(song(id));
+        }
+        return res;
+    }
+
+    /**
+     * Get the maximum history length
+     * @return history limit
+     */
+    int getRecentLimit() {
+        return recentLimit;
+    }
+
+    /**
+     * Change the maximum history length, dropping the least recent songs
+     * @param recentLimit new limit
+     */
+    void setRecentLimit(int recentLimit) {
+        this.recentLimit = recentLimit;
+        trimRecent();
+    }
+
+    // record the song under its id
+    private int enter(Song song) {
+        int id = song.getId();
+        if (song(id) != song) {
+            writable(id);
+            songPage(id)[id & (PAGE_SIZE - 1)] = song;
+        }
+        return id;
+    }
+
+    private int get(int id, int field) {
+        return dataBlocks[id >>> (PAGE_BITS + BLOCK_BITS)][(id >>> PAGE_BITS) & (BLOCK_SIZE - 1)]
+                [(id & (PAGE_SIZE - 1)) * FIELDS + field];
+    }
+
+    private void set(int id, int field, int value) {
+        writable(id)[(id & (PAGE_SIZE - 1)) * FIELDS + field] = value;
+    }
+
+    private Song[] songPage(int id) {
+        return songBlocks[id >>> (PAGE_BITS + BLOCK_BITS)][(id >>> PAGE_BITS) & (BLOCK_SIZE - 1)];
+    }
+
+    // the fields of the page of an id, allocated on first use and copied
+    // first if shared; the songs of the page go along
+    private int[] writable(int id) {
+        int block = id >>> (PAGE_BITS + BLOCK_BITS);
+        int page = (id >>> PAGE_BITS) & (BLOCK_SIZE - 1);
+        if (block >= songBlocks.length) {
+            int capacity = Math.max(block + 1, songBlocks.length * 2);
+            songBlocks = Arrays.copyOf(songBlocks, capacity);
+            dataBlocks = Arrays.copyOf(dataBlocks, capacity);
+            ownedBlocks = Arrays.copyOf(ownedBlocks, capacity);
+            ownedPages = Arrays.copyOf(ownedPages, capacity);
+        }
+        if (!ownedBlocks[block]) {
+            songBlocks[block] = songBlocks[block] == null
+                    ? new Song[BLOCK_SIZE][] : songBlocks[block].clone();
+            dataBlocks[block] = dataBlocks[block] == null
+                    ? new int[BLOCK_SIZE][] : dataBlocks[block].clone();
+            ownedPages[block] = new boolean[BLOCK_SIZE];
+            ownedBlocks[block] = true;
+        }
+        if (!ownedPages[block][page]) {
+            Song[] songs = songBlocks[block][page];
+            songBlocks[block][page] = songs == null ? new Song[PAGE_SIZE] : songs.clone();
+            int[] data = dataBlocks[block][page];
+            dataBlocks[block][page] = data == null ? new int[PAGE_SIZE * FIELDS] : data.clone();
+            ownedPages[block][page] = true;
+        }
+        return dataBlocks[block][page];
+    }
+
+    // move a song from its count to the next one, keeping the ranking sorted
+    private void increment(int id) {
+        int count = get(id, COUNT);
+        int next = count + 1;
+        int nextLast = lastOfCount.get(next, NONE);
+        if (count == 0) {
+            // a first play joins the end of count 1, which is the lowest count
+            insertRankAfter(id, nextLast != NONE ? nextLast : rankTail);
+        } else {
+            int first = firstOfCount.get(count, NONE);
+            leaveCount(id);
+            if (nextLast != NONE) {
+                // the next count sits right before this one; join its end
+                if (get(id, RANK_PREV) != nextLast) {
+                    unlinkRank(id);
+                    insertRankAfter(id, nextLast);
+                }
+            } else if (id != first) {
+                // a new count goes right before the head of this one
+                unlinkRank(id);
+                insertRankAfter(id, get(first, RANK_PREV));
+            }
+        }
+        set(id, COUNT, next);
+        if (nextLast == NONE) {
+            firstOfCount.put(next, id);
+        }
+        lastOfCount.put(next, id);
+    }
+
+    // take a song out of the first/last bookkeeping of its count
+    private void leaveCount(int id) {
+        int count = get(id, COUNT);
+        int first = firstOfCount.get(count, NONE);
+        int last = lastOfCount.get(count, NONE);
+        if (first == id && last == id) {
+            firstOfCount.remove(count);
+            lastOfCount.remove(count);
+        } else if (first == id) {
+            firstOfCount.put(count, get(id, RANK_NEXT));
+        } else if (last == id) {
+            lastOfCount.put(count, get(id, RANK_PREV));
+        }
+    }
+
+    // insert after the given id, or at the head if it is NONE
+    private void insertRankAfter(int id, int after) {
+        int before = after == NONE ? rankHead : get(after, RANK_NEXT);
+        set(id, RANK_PREV, after);
+        set(id, RANK_NEXT, before);
+        if (after == NONE) {
+            rankHead = id;
+        } else {
+            set(after, RANK_NEXT, id);
+        }
+        if (before == NONE) {
+            rankTail = id;
+        } else {
+            set(before, RANK_PREV, id);
+        }
+    }
+
+    private void unlinkRank(int id) {
+        int prev = get(id, RANK_PREV);
+        int next = get(id, RANK_NEXT);
+        if (prev == NONE) {
+            rankHead = next;
+        } else {
+            set(prev, RANK_NEXT, next);
+        }
+        if (next == NONE) {
+            rankTail = prev;
+        } else {
+            set(next, RANK_PREV, prev);
+        }
+    }
+
+    // make a song the most recent one
+    private void touch(int id) {
+        if (get(id, IN_RECENT) != 0) {
+            if (id == recentHead) {
+                return;
+            }
+            unlinkRecent(id);
+        }
+        set(id, IN_RECENT, 1);
+        recentSize++;
+        set(id, RECENT_PREV, NONE);
+        set(id, RECENT_NEXT, recentHead);
+        if (recentHead == NONE) {
+            recentTail = id;
+        } else {
+            set(recentHead, RECENT_PREV, id);
+        }
+        recentHead = id;
+        trimRecent();
+    }
+
+    private void trimRecent() {
+        while (recentSize > recentLimit) {
+            unlinkRecent(recentTail);
+        }
+    }
+
+    private void unlinkRecent(int id) {
+        int prev = get(id, RECENT_PREV);
+        int next = get(id, RECENT_NEXT);
+        if (prev == NONE) {
+            recentHead = next;
+        } else {
+            set(prev, RECENT_NEXT, next);
+        }
+        if (next == NONE) {
+            recentTail = prev;
+        } else {
+            set(next, RECENT_PREV, prev);
+        }
+        set(id, IN_RECENT, 0);
+        recentSize--;
+    }
+}
@@ -0,0 +1,286 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This class answers case-insensitive prefix queries over a fixed set of
+ * terms (titles or artist names), returning the most popular completions.
+ *
+ * Terms are kept in a sorted array, so all completions of a prefix form one
+ * contiguous range found by binary search. A max segment tree over the
+ * popularity weights then yields the top N of that range in
+ * O(N log n) time, no matter how many terms share the prefix.
+ *
+ * Later catalog versions derive their index with withChanges(): the arrays
+ * are shared and the changed weights are kept in a small overlay that
+ * queries merge in, until the overlay grows large enough to rebuild
+ */
+class PrefixIndex {
+
+    // smallest overlay that triggers a rebuild
+    private static final int MIN_REBUILD = 256;
+
+    private final String[] keys;
+    private final String[] terms;
+    private final int[] weights;
+    // segment tree storing the index of the heaviest term of each node range
+    private final int[] tree;
+    // current weight of every term changed since the arrays were built, 0
+    // for terms that are gone, and the changed terms in array order
+    private final Map<String, Integer> changed;
+    private final String[] changedKeys;
+    private final String[] changedTerms;
+
+    /**
+     * Build the index
+     * @param weightByTerm popularity of every term
+     */
+    PrefixIndex(Map<String, Integer> weightByTerm) {
+        String[] names = weightByTerm.keySet().toArray(new String[0]);
+        String[] folded = new String[names.length];
+        Integer[] order = new Integer[names.length];
+        for (int i = 0; i < names.length; i++) {
+            folded[i] = fold(names[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = folded[a].compareTo(folded[b]);
+            return cmp != 0 ? cmp : names[a].compareTo(names[b]);
+        });
+        int n = names.length;
+        keys = new String[n];
+        terms = new String[n];
+        weights = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = folded[order[i]];
+            terms[i] = names[order[i]];
+            weights[i] = weightByTerm.get(terms[i]);
+        }
+
+        tree = new int[Math.max(1, 2 * n)];
+        for (int i = 0; i < n; i++) {
+            tree[n + i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            tree[i] = heavier(tree[2 * i], tree[2 * i + 1]);
+        }
+        changed = Collections.emptyMap();
+        changedKeys = new String[0];
+        changedTerms = new String[0];
+    }
+
+    /**
+     * Derived index sharing the arrays of its base
+     * @param base index whose arrays are shared
+     * @param changed current weight of every term changed since the arrays
+     *                were built
+     */
+    private PrefixIndex(PrefixIndex base, Map<String, Integer> changed) {
+        keys = base.keys;
+        terms = base.terms;
+        weights = base.weights;
+        tree = base.tree;
+        this.changed = changed;
+        String[][] pairs = new String[changed.size()][];
+        int i = 0;
+        for (String term : changed.keySet()) {
+            pairs[i++] = new String[] {fold(term), term};
+        }
+        Arrays.sort(pairs, (a, b) -> {
+            int cmp = a[0].compareTo(b[0]);
+            return cmp != 0 ? cmp : a[1].compareTo(b[1]);
+        });
+        changedKeys = new String[pairs.length];
+        changedTerms = new String[pairs.length];
+        for (i = 0; i < pairs.length; i++) {
+            changedKeys[i] = pairs[i][0];
+            changedTerms[i] = pairs[i][1];
+        }
+    }
+
+    /**
+     * Derive the index of the next catalog version, sharing the arrays of
+     * this one. This index is unchanged
+     * @param delta change of popularity of every term that changed
+     * @return derived index
+     */
+    PrefixIndex withChanges(Map<String, Integer> delta) {
+        Map<String, Integer> next = new HashMap<>(changed);
+        for (Map.Entry<String, Integer> entry : delta.entrySet()) {
+            String term = entry.getKey();
+            int weight = weightOf(term) + entry.getValue();
+            if (weight == baseWeight(term)) {
+                next.remove(term);
+            } else {
+                next.put(term, weight);
+            }
+        }
+        if (next.size() <= Math.max(MIN_REBUILD, terms.length / 8)) {
+            return new PrefixIndex(this, next);
+        }
+        Map<String, Integer> all = new HashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+            all.put(terms[i], weights[i]);
+        }
+        for (Map.Entry<String, Integer> entry : next.entrySet()) {
+            if (entry.getValue() > 0) {
+                all.put(entry.getKey(), entry.getValue());
+            } else {
+                all.remove(entry.getKey());
+            }
+        }
+        return new PrefixIndex(all);
+    }
+
+    /**
+     * Get the popularity of a term
+     * @param term input term
+     * @return popularity, 0 if the term is not indexed
+     */
+    int weightOf(String term) {
+        Integer weight = changed.get(term);
+        return weight != null ? weight : baseWeight(term);
+    }
+
+    private int baseWeight(String term) {
+        String key = fold(term);
+        for (int i = lowerBound(keys, key); i < keys.length && keys[i].equals(key); i++) {
+            if (terms[i].equals(term)) {
+                return weights[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the most popular terms starting with the prefix, ignoring case.
+     * Terms with the same popularity are returned in alphabetical order
+     * @param prefix input prefix
+     * @param limit maximum number of completions
+     * @return completions, most popular first
+     */
+    List<String> complete(String prefix, int limit) {
+        List<String> res = new ArrayList<>();
+        if (limit <= 0) {
+            return res;
+        }
+        String key = fold(prefix);
+        String end = key + Character.MAX_VALUE;
+
+        // changed terms with the prefix, best first
+        List<Integer> extra = new ArrayList<>();
+        for (int i = lowerBound(changedKeys, key), to = lowerBound(changedKeys, end); i < to; i++) {
+            if (changed.get(changedTerms[i]) > 0) {
+                extra.add(i);
+            }
+        }
+        extra.sort((a, b) -> {
+            int cmp = Integer.compare(changed.get(changedTerms[b]), changed.get(changedTerms[a]));
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+
+        // best-first search: take the heaviest term of a range, then split
+        // the range around it
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(weights[b[2]], weights[a[2]]);
+            return cmp != 0 ? cmp : Integer.compare(a[2], b[2]);
+        });
+        int lo = lowerBound(keys, key);
+        int hi = lowerBound(keys, end);
+        if (lo < hi) {
+            queue.add(new int[] {lo, hi, rangeMax(lo, hi)});
+        }
+        int e = 0;
+        int best = nextBest(queue);
+        while (res.size() < limit && (best >= 0 || e < extra.size())) {
+            if (best < 0 || e < extra.size() && before(extra.get(e), best)) {
+                res.add(changedTerms[extra.get(e++)]);
+            } else {
+                res.add(terms[best]);
+                best = nextBest(queue);
+            }
+        }
+        return res;
+    }
+
+    // next term of the best-first search whose weight did not change, or -1
+    private int nextBest(PriorityQueue<int[]> queue) {
+        while (!queue.isEmpty()) {
+            int[] range = queue.poll();
+            int best = range[2];
+            if (range[0] < best) {
+                queue.add(new int[] {range[0], best, rangeMax(range[0], best)});
+            }
+            if (best + 1 < range[1]) {
+                queue.add(new int[] {best + 1, range[1], rangeMax(best + 1, range[1])});
+            }
+            if (!changed.containsKey(terms[best])) {
+                return best;
+            }
+        }
+        return -1;
+    }
+
+    // true if changed term c ranks before array term t: heavier first, then
+    // in the order of the arrays
+    private boolean before(int c, int t) {
+        int weight = changed.get(changedTerms[c]);
+        if (weight != weights[t]) {
+            return weight > weights[t];
+        }
+        int cmp = changedKeys[c].compareTo(keys[t]);
+        return cmp != 0 ? cmp < 0 : changedTerms[c].compareTo(terms[t]) < 0;
+    }
+
+    /**
+     * Normalize a term for prefix comparison
+     * @param term input term
+     * @return lower case term
+     */
+    static String fold(String term) {
+        return term.toLowerCase(Locale.ROOT);
+    }
+
+    private static int lowerBound(String[] keys, String key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // index of the heaviest term in [from, to)
+    private int rangeMax(int from, int to) {
+        int n = terms.length;
+        int best = from;
+        for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                best = heavier(best, tree[l++]);
+            }
+            if ((r & 1) == 1) {
+                best = heavier(best, tree[--r]);
+            }
+        }
+        return best;
+    }
+
+    private int heavier(int a, int b) {
+        if (weights[a] != weights[b]) {
+            return weights[a] > weights[b] ? a : b;
+        }
+        return Math.min(a, b);
+    }
+}
@@ -0,0 +1,131 @@
+package model;
+
+import java.util.HashMap;
+
+/**
+ * This class is a hash map split into segments by key hash, so that a copy
+ * shares every segment with the map it was made from until it changes one.
+ * Copying costs one small array however many keys there are, and a change
+ * copies at most the segment of its key, so a catalog version derived from
+ * the previous one only pays for the keys it touches.
+ * A map must not be changed any more once a copy has been made from it
+ */
+final class SegmentedMap<K, V> {
+
+    private static final int DEFAULT_SEGMENT_BITS = 10;
+
+    // null for segments without keys
+    private final HashMap<K, V>[] segments;
+    // segments this map created or copied, which it may change in place
+    private final boolean[] owned;
+    private final int shift;
+
+    /**
+     * Create an empty map with the default number of segments
+     */
+    SegmentedMap() {
+        this(DEFAULT_SEGMENT_BITS);
+    }
+
+    /**
+     * Create an empty map
+     * @param segmentBits log2 of the number of segments; more segments make
+     *                    a change copy fewer keys and a copy of the map cost more
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SegmentedMap(int segmentBits) {
+        segments = (HashMap<K, V>[]) new HashMap[1 << segmentBits];
+        owned = new boolean[segments.length];
+        shift = 32 - segmentBits;
+    }
+
+    /**
+     * Copy constructor: the segments are shared with the base map until
+     * this map needs to change them
+     * @param base map to copy
+     */
+    SegmentedMap(SegmentedMap<K, V> base) {
+        segments = base.segments.clone();
+        owned = new boolean[segments.length];
+        shift = base.shift;
+    }
+
+    /**
+     * Get the value of a key
+     * @param key input key
+     * @return the value, or null if the key is not mapped
+     */
+    V get(Object key) {
+        HashMap<K, V> segment = segments[segmentOf(key)];
+        return segment == null ? null : segment.get(key);
+    }
+
+    /**
+     * Get the value of a key, or a fallback if it is not mapped
+     * @param key input key
+     * @param fallback value returned for unmapped keys
+     * @return the value or the fallback
+     */
+    V getOrDefault(Object key, V fallback) {
+        V value = get(key);
+        return value == null ? fallback : value;
+    }
+
+    /**
+     * Check if a key is mapped
+     * @param key input key
+     * @return true if mapped, else false
+     */
+    boolean containsKey(Object key) {
+        HashMap<K, V> segment = segments[segmentOf(key)];
+        return segment != null && segment.containsKey(key);
+    }
+
+    /**
+     * Map a key to a value
+     * @param key input key
+     * @param value new value, not null
+     */
+    void put(K key, V value) {
+        writable(segmentOf(key)).put(key, value);
+    }
+
+    /**
+     * Map a key to a value unless it is mapped already
+     * @param key input key
+     * @param value new value, not null
+     */
+    void putIfAbsent(K key, V value) {
+        int s = segmentOf(key);
+        if (owned[s]) {
+            segments[s].putIfAbsent(key, value);
+        } else if (segments[s] == null || !segments[s].containsKey(key)) {
+            writable(s).put(key, value);
+        }
+    }
+
+    /**
+     * Remove the mapping of a key
+     * @param key input key
+     */
+    void remove(Object key) {
+        int s = segmentOf(key);
+        if (segments[s] != null && segments[s].containsKey(key)) {
+            writable(s).remove(key);
+        }
+    }
+
+    // the segment by the top bits of the spread hash, so the keys of one
+    // segment still spread over the buckets of its HashMap
+    private int segmentOf(Object key) {
+        return (key.hashCode() * 0x9E3779B9) >>> shift;
+    }
+
+    private HashMap<K, V> writable(int s) {
+        if (!owned[s]) {
+            segments[s] = segments[s] == null ? new HashMap<>() : new HashMap<>(segments[s]);
+            owned[s] = true;
+        }
+        return segments[s];
+    }
+}
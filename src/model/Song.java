@@ -2,12 +2,15 @@ package model;
 
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class shows the basic info and operations for the Song
  */
 public class Song implements Serializable {
     private static final long serialVersionUID = 1L;
+    // next free song id; ids are never reused
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
 
     private String title;
     private String artist;
@@ -15,6 +18,12 @@ public class Song implements Serializable {
     private String genre;
     private int rating;
     private boolean isFavorite;
+    // set once the song belongs to the shared music store catalog
+    private transient boolean shared;
+    // dense id that libraries index their data by. Catalog songs get the id
+    // block reserved for their album in catalog order plus their track
+    // index, other songs the next free id, and copies the id of their song
+    private final transient int id;
 
     /**
      * Default constructor
@@ -23,20 +32,49 @@ public class Song implements Serializable {
      * @param album input album
      */
     public Song(String title, String artist, String album) {
+        this(title, artist, album, "", NEXT_ID.getAndIncrement()); // Default empty genre
+    }
+
+    /**
+     * Constructor with genre
+     */
+    public Song(String title, String artist, String album, String genre) {
+        this(title, artist, album, genre, NEXT_ID.getAndIncrement());
+    }
+
+    /**
+     * Constructor for a song with a reserved id, e.g. a catalog song
+     * @param title input title
+     * @param artist input artist
+     * @param album input album
+     * @param genre input genre
+     * @param id id taken from reserveIds()
+     */
+    Song(String title, String artist, String album, String genre, int id) {
         this.title = title;
-        this.artist = artist;
-        this.album = album;
+        this.artist = StringPool.canonical(artist);
+        this.album = StringPool.canonical(album);
         this.rating = 0;
         this.isFavorite = false;
-        this.genre = ""; // Default empty genre
+        this.genre = StringPool.canonical(genre);
+        this.id = id;
     }
 
     /**
-     * Constructor with genre
+     * Reserve a block of consecutive song ids, e.g. for the tracks of an album
+     * @param count number of ids
+     * @return first id of the block
      */
-    public Song(String title, String artist, String album, String genre) {
-        this(title, artist, album);
-        this.genre = genre;
+    static int reserveIds(int count) {
+        return NEXT_ID.getAndAdd(count);
+    }
+
+    /**
+     * Get the id of the song, the same for all its copies
+     * @return song id
+     */
+    int getId() {
+        return id;
     }
 
     /**
@@ -63,6 +101,33 @@ public class Song implements Serializable {
         return album;
     }
 
+    /**
+     * Mark the song as part of the shared catalog; its genre, rating and
+     * favorite flag can no longer be changed
+     */
+    void share() {
+        shared = true;
+    }
+
+    /**
+     * Check if the song belongs to the shared catalog
+     * @return true if shared, else false
+     */
+    boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Copy the song, e.g. to give a user their own copy of a catalog song
+     * @return an unshared song equal to this one
+     */
+    Song copy() {
+        Song copy = new Song(title, artist, album, genre, id);
+        copy.rating = rating;
+        copy.isFavorite = isFavorite;
+        return copy;
+    }
+
     /**
      * Get the song genre
      * @return song genre
@@ -76,7 +141,8 @@ public class Song implements Serializable {
      * @param genre The genre to set
      */
     public void setGenre(String genre) {
-        this.genre = genre;
+        checkNotShared();
+        this.genre = StringPool.canonical(genre);
     }
 
     /**
@@ -92,6 +158,7 @@ public class Song implements Serializable {
      * @param rating input rating
      */
     public void setRating(int rating) {
+        checkNotShared();
         this.rating = rating;
         if (rating == 5) {
             this.isFavorite = true;
@@ -111,9 +178,28 @@ public class Song implements Serializable {
      * @param favorite true to mark as favorite, false otherwise
      */
     public void setFavorite(boolean favorite) {
+        checkNotShared();
         this.isFavorite = favorite;
     }
 
+    private void checkNotShared() {
+        if (shared) {
+            throw new UnsupportedOperationException("Catalog songs cannot be changed: " + title);
+        }
+    }
+
+    /**
+     * Replace a serialized song by one with a fresh id, as ids only hold
+     * within one run, sharing its metadata strings with every other loaded song
+     * @return the restored song
+     */
+    private Object readResolve() {
+        Song song = new Song(title, artist, album, genre, NEXT_ID.getAndIncrement());
+        song.rating = rating;
+        song.isFavorite = isFavorite;
+        return song;
+    }
+
     /**
      * Check if two songs equal to each other
      * @param o another song object
@@ -131,7 +217,11 @@ public class Song implements Serializable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(title, artist, album);
+        // same value as Objects.hash(title, artist, album), without the
+        // varargs array: songs are hashed on every play
+        int result = 31 + Objects.hashCode(title);
+        result = 31 * result + Objects.hashCode(artist);
+        return 31 * result + Objects.hashCode(album);
     }
 
     /**
@@ -0,0 +1,104 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the rating and the favorite mark of library songs by
+ * song id: ratings one byte per id, favorite marks one bit per id. Ids are
+ * dense per catalog, so both sit in pages of 1024 ids allocated on first
+ * use, and a copy shares every page with the marks it was made from until
+ * it changes one.
+ * Marks must not be changed any more once a copy has been made from them
+ */
+final class SongMarks {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // page index -> ratings and favorite bits of its ids, null until used
+    private byte[][] ratings;
+    private long[][] favorites;
+    // pages this object created or copied, which it may change in place
+    private boolean[] owned;
+
+    /**
+     * Create marks without any rating or favorite
+     */
+    SongMarks() {
+        ratings = new byte[0][];
+        favorites = new long[0][];
+        owned = new boolean[0];
+    }
+
+    /**
+     * Copy constructor: the pages are shared with the base marks until
+     * these marks need to change them
+     * @param base marks to copy
+     */
+    SongMarks(SongMarks base) {
+        ratings = base.ratings.clone();
+        favorites = base.favorites.clone();
+        owned = new boolean[ratings.length];
+    }
+
+    /**
+     * Get the rating of a song
+     * @param id song id
+     * @return rating, 0 if not rated
+     */
+    int rating(int id) {
+        int page = id >>> PAGE_BITS;
+        return page < ratings.length && ratings[page] != null
+                ? ratings[page][id & (PAGE_SIZE - 1)] : 0;
+    }
+
+    /**
+     * Set the rating of a song
+     * @param id song id
+     * @param rating rating, 0 to clear it
+     */
+    void setRating(int id, int rating) {
+        if (rating != rating(id)) {
+            writable(id >>> PAGE_BITS);
+            ratings[id >>> PAGE_BITS][id & (PAGE_SIZE - 1)] = (byte) rating;
+        }
+    }
+
+    /**
+     * Check if a song is marked as favorite
+     * @param id song id
+     * @return true if favorite, else false
+     */
+    boolean isFavorite(int id) {
+        int page = id >>> PAGE_BITS;
+        return page < favorites.length && favorites[page] != null
+                && (favorites[page][(id & (PAGE_SIZE - 1)) >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Mark a song as favorite or not
+     * @param id song id
+     * @param favorite true to mark, false to clear
+     */
+    void setFavorite(int id, boolean favorite) {
+        if (favorite != isFavorite(id)) {
+            writable(id >>> PAGE_BITS);
+            favorites[id >>> PAGE_BITS][(id & (PAGE_SIZE - 1)) >>> 6] ^= 1L << id;
+        }
+    }
+
+    private void writable(int page) {
+        if (page >= ratings.length) {
+            int capacity = Math.max(page + 1, ratings.length * 2);
+            ratings = Arrays.copyOf(ratings, capacity);
+            favorites = Arrays.copyOf(favorites, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+        }
+        if (!owned[page]) {
+            ratings[page] = ratings[page] == null ? new byte[PAGE_SIZE] : ratings[page].clone();
+            favorites[page] = favorites[page] == null
+                    ? new long[PAGE_SIZE / Long.SIZE] : favorites[page].clone();
+            owned[page] = true;
+        }
+    }
+}
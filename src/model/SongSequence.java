@@ -0,0 +1,210 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is a set of songs in the order they were added, where an equal
+ * song finds the instance that was added. The songs sit in chunks of 64
+ * positions and their positions in a segmented map, so that a copy shares
+ * every chunk and segment with the sequence it was made from until it
+ * changes one: copying costs two small arrays, and a change copies at most
+ * one chunk and one segment.
+ * Removed songs leave a hole that is skipped, and the holes are squeezed
+ * out once they make up half of the positions.
+ * A sequence must not be changed any more once a copy has been made from it
+ */
+final class SongSequence implements Iterable<Song> {
+
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int SEGMENT_BITS = 8;
+
+    // song -> position
+    private SegmentedMap<Song, Integer> positions;
+    // position -> song, null for removed songs and chunks without songs
+    private Song[][] chunks;
+    // chunks this sequence created or copied, which it may change in place
+    private boolean[] owned;
+    // next free position, and the number of songs
+    private int end;
+    private int size;
+    // read-only list of the songs, built on demand and dropped on change;
+    // volatile as readers of a published sequence may build it
+    private volatile List<Song> view;
+
+    /**
+     * Create an empty sequence
+     */
+    SongSequence() {
+        positions = new SegmentedMap<>(SEGMENT_BITS);
+        chunks = new Song[0][];
+        owned = new boolean[0];
+    }
+
+    /**
+     * Copy constructor: the chunks and segments are shared with the base
+     * sequence until this sequence needs to change them
+     * @param base sequence to copy
+     */
+    SongSequence(SongSequence base) {
+        positions = new SegmentedMap<>(base.positions);
+        chunks = base.chunks.clone();
+        owned = new boolean[chunks.length];
+        end = base.end;
+        size = base.size;
+        view = base.view;
+    }
+
+    /**
+     * Get the instance of a song in the sequence
+     * @param song input song
+     * @return the added song equal to the input, or null
+     */
+    Song get(Object song) {
+        Integer position = positions.get(song);
+        return position == null ? null : chunks[position >>> CHUNK_BITS][position & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Check if the sequence holds a song
+     * @param song input song
+     * @return true if an equal song was added, else false
+     */
+    boolean contains(Object song) {
+        return positions.containsKey(song);
+    }
+
+    /**
+     * Add a song at the end unless an equal song is there already
+     * @param song song to add
+     * @return true if added, else false
+     */
+    boolean add(Song song) {
+        if (positions.containsKey(song)) {
+            return false;
+        }
+        int chunk = end >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, chunks.length * 2));
+            owned = Arrays.copyOf(owned, chunks.length);
+        }
+        writable(chunk)[end & (CHUNK_SIZE - 1)] = song;
+        positions.put(song, end);
+        end++;
+        size++;
+        view = null;
+        return true;
+    }
+
+    /**
+     * Remove a song
+     * @param song song to remove
+     * @return the removed instance, or null if the sequence did not hold it
+     */
+    Song remove(Object song) {
+        Integer position = positions.get(song);
+        if (position == null) {
+            return null;
+        }
+        Song[] chunk = writable(position >>> CHUNK_BITS);
+        Song removed = chunk[position & (CHUNK_SIZE - 1)];
+        chunk[position & (CHUNK_SIZE - 1)] = null;
+        positions.remove(song);
+        size--;
+        view = null;
+        if (end - size > size + CHUNK_SIZE) {
+            compact();
+        }
+        return removed;
+    }
+
+    /**
+     * Get the number of songs
+     * @return song count
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the songs
+     * @return read-only list of the songs in the order they were added
+     */
+    List<Song> toList() {
+        List<Song> songs = view;
+        if (songs == null) {
+            Song[] array = new Song[size];
+            int i = 0;
+            for (Song song : this) {
+                array[i++] = song;
+            }
+            songs = Collections.unmodifiableList(Arrays.asList(array));
+            view = songs;
+        }
+        return songs;
+    }
+
+    /**
+     * Iterate over the songs in the order they were added
+     * @return song iterator
+     */
+    @Override
+    public Iterator<Song> iterator() {
+        return new Iterator<Song>() {
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Song next() {
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                Song song = chunks[next >>> CHUNK_BITS][next & (CHUNK_SIZE - 1)];
+                next = advance(next + 1);
+                return song;
+            }
+        };
+    }
+
+    // the first position from the given one that holds a song, or end
+    private int advance(int position) {
+        while (position < end) {
+            Song[] chunk = chunks[position >>> CHUNK_BITS];
+            if (chunk[position & (CHUNK_SIZE - 1)] != null) {
+                return position;
+            }
+            position++;
+        }
+        return end;
+    }
+
+    // move the songs to the front, in new chunks and segments
+    private void compact() {
+        Song[] songs = toList().toArray(new Song[0]);
+        positions = new SegmentedMap<>(SEGMENT_BITS);
+        chunks = new Song[(songs.length >>> CHUNK_BITS) + 1][];
+        owned = new boolean[chunks.length];
+        end = 0;
+        size = 0;
+        view = null;
+        for (Song song : songs) {
+            add(song);
+        }
+    }
+
+    private Song[] writable(int chunk) {
+        if (!owned[chunk]) {
+            chunks[chunk] = chunks[chunk] == null ? new Song[CHUNK_SIZE] : chunks[chunk].clone();
+            owned[chunk] = true;
+        }
+        return chunks[chunk];
+    }
+}
@@ -0,0 +1,116 @@
+package model;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * This class walks the songs of a range of albums without copying them into
+ * a new list. When the cumulative song count of the albums is known the
+ * range is split at the album holding the middle song, so both halves get
+ * about the same number of songs; otherwise it is split by album count
+ */
+class SongSpliterator implements Spliterator<Song> {
+
+    private final List<Album> albums;
+    // songOffsets[i] is the number of songs before album i, null if unknown
+    private final int[] songOffsets;
+    private int from;
+    private final int to;
+    private Iterator<Song> current;
+    private long remaining;
+
+    /**
+     * Constructor
+     * @param albums albums to walk
+     * @param songOffsets cumulative song counts with albums.size() + 1 entries,
+     *                    or null if the counts are not known up front
+     * @param from first album index, inclusive
+     * @param to last album index, exclusive
+     */
+    SongSpliterator(List<Album> albums, int[] songOffsets, int from, int to) {
+        this.albums = albums;
+        this.songOffsets = songOffsets;
+        this.from = from;
+        this.to = to;
+        this.remaining = songOffsets != null ? songOffsets[to] - songOffsets[from] : Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Song> action) {
+        while (current == null || !current.hasNext()) {
+            if (from >= to) {
+                return false;
+            }
+            current = albums.get(from++).scanSongs().iterator();
+        }
+        action.accept(current.next());
+        if (songOffsets != null) {
+            remaining--;
+        }
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Song> action) {
+        if (current != null) {
+            current.forEachRemaining(action);
+            current = null;
+        }
+        for (; from < to; from++) {
+            for (Song song : albums.get(from).scanSongs()) {
+                action.accept(song);
+            }
+        }
+        remaining = songOffsets != null ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public Spliterator<Song> trySplit() {
+        // only split ranges that have not been started
+        if (current != null || to - from < 2) {
+            return null;
+        }
+        int mid;
+        if (songOffsets != null) {
+            mid = middleAlbum();
+        } else {
+            mid = (from + to) >>> 1;
+        }
+        Spliterator<Song> prefix = new SongSpliterator(albums, songOffsets, from, mid);
+        from = mid;
+        if (songOffsets != null) {
+            remaining = songOffsets[to] - songOffsets[from];
+        }
+        return prefix;
+    }
+
+    // first album index whose songs start at or after the middle song,
+    // kept strictly inside (from, to) so both halves are non-empty
+    private int middleAlbum() {
+        int target = (songOffsets[from] + songOffsets[to]) >>> 1;
+        int lo = from + 1;
+        int hi = to - 1;
+        while (lo < hi) {
+            int m = (lo + hi) >>> 1;
+            if (songOffsets[m] < target) {
+                lo = m + 1;
+            } else {
+                hi = m;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        int res = ORDERED | NONNULL | IMMUTABLE;
+        return songOffsets != null ? res | SIZED | SUBSIZED : res;
+    }
+}
@@ -0,0 +1,229 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * This class keeps the songs of a library sorted by title, by artist and by
+ * rating, so sorted listings are read in order instead of sorted on every
+ * call. Songs with the same title, artist or rating stay in the order they
+ * joined the library, as a stable sort of the library would give.
+ *
+ * Adding, removing or rating a song costs O(log n), and the first k songs
+ * of a listing are read in O(k + log n). Every entry keeps the rating it
+ * was sorted by, so the order stays sound even when a rating changes
+ * outside of rate(), e.g. on a copy of the song shared with another library.
+ * The ratings are the ones the library keeps, not the ones on the songs.
+ *
+ * Each order is a treap whose nodes never change: a change copies the
+ * nodes on its path, so a copy of the listings shares every node and every
+ * entry segment with the listings it was made from, and costs O(1) plus
+ * one small array. Listings must not be changed any more once a copy has
+ * been made from them
+ */
+class SortedSongs {
+
+    private static final Comparator<Entry> BY_TITLE =
+            Comparator.comparing((Entry e) -> e.song.getTitle()).thenComparingLong(e -> e.seq);
+    private static final Comparator<Entry> BY_ARTIST =
+            Comparator.comparing((Entry e) -> e.song.getArtist()).thenComparingLong(e -> e.seq);
+    private static final Comparator<Entry> BY_RATING =
+            Comparator.comparingInt((Entry e) -> e.rating).reversed().thenComparingLong(e -> e.seq);
+    private static final int SEGMENT_BITS = 8;
+
+    private final SegmentedMap<Song, Entry> entries;
+    private Node byTitle;
+    private Node byArtist;
+    private Node byRating;
+    // join order of the next song
+    private long nextSeq;
+
+    /**
+     * Sort the songs of a library
+     * @param songs library songs in the order they joined it
+     * @param ratingOf rating of every song
+     */
+    SortedSongs(Collection<Song> songs, ToIntFunction<Song> ratingOf) {
+        entries = new SegmentedMap<>(SEGMENT_BITS);
+        for (Song song : songs) {
+            add(song, ratingOf.applyAsInt(song));
+        }
+    }
+
+    /**
+     * Copy constructor: the entries and tree nodes are shared with the base
+     * listings until this copy changes them
+     * @param base listings to copy
+     */
+    SortedSongs(SortedSongs base) {
+        entries = new SegmentedMap<>(base.entries);
+        byTitle = base.byTitle;
+        byArtist = base.byArtist;
+        byRating = base.byRating;
+        nextSeq = base.nextSeq;
+    }
+
+    /**
+     * Add a song that joined the library
+     * @param song new library song
+     * @param rating rating of the song
+     */
+    void add(Song song, int rating) {
+        Entry entry = new Entry(song, nextSeq++, rating);
+        entries.put(song, entry);
+        byTitle = insert(byTitle, entry, BY_TITLE);
+        byArtist = insert(byArtist, entry, BY_ARTIST);
+        byRating = insert(byRating, entry, BY_RATING);
+    }
+
+    /**
+     * Remove a song that left the library
+     * @param song removed song
+     */
+    void remove(Song song) {
+        Entry entry = entries.get(song);
+        if (entry != null) {
+            entries.remove(song);
+            byTitle = delete(byTitle, entry, BY_TITLE);
+            byArtist = delete(byArtist, entry, BY_ARTIST);
+            byRating = delete(byRating, entry, BY_RATING);
+        }
+    }
+
+    /**
+     * Move a song to its new place in the rating order
+     * @param song rated song
+     * @param rating new rating
+     */
+    void rate(Song song, int rating) {
+        Entry entry = entries.get(song);
+        if (entry == null || entry.rating == rating) {
+            return;
+        }
+        byRating = delete(byRating, entry, BY_RATING);
+        Entry rated = new Entry(entry.song, entry.seq, rating);
+        entries.put(song, rated);
+        byRating = insert(byRating, rated, BY_RATING);
+    }
+
+    /**
+     * Get the first songs of a listing
+     * @param sortBy "title", "artist" or "rating"
+     * @param limit maximum number of songs
+     * @return songs in order, or null if sortBy is not a known order
+     */
+    List<Song> first(String sortBy, int limit) {
+        Node root;
+        switch (sortBy) {
+            case "title":
+                root = byTitle;
+                break;
+            case "artist":
+                root = byArtist;
+                break;
+            case "rating":
+                root = byRating;
+                break;
+            default:
+                return null;
+        }
+        List<Song> songs = new ArrayList<>();
+        // in-order walk that stops after limit songs
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        while ((node != null || !path.isEmpty()) && songs.size() < limit) {
+            if (node != null) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = path.pop();
+                songs.add(node.entry.song);
+                node = node.right;
+            }
+        }
+        return songs;
+    }
+
+    // the tree with the entry added, sharing every node off its path
+    private static Node insert(Node node, Entry entry, Comparator<Entry> order) {
+        if (node == null) {
+            return new Node(entry, null, null);
+        }
+        if (order.compare(entry, node.entry) < 0) {
+            Node left = insert(node.left, entry, order);
+            if (left.entry.priority > node.entry.priority) {
+                return new Node(left.entry, left.left, new Node(node.entry, left.right, node.right));
+            }
+            return new Node(node.entry, left, node.right);
+        }
+        Node right = insert(node.right, entry, order);
+        if (right.entry.priority > node.entry.priority) {
+            return new Node(right.entry, new Node(node.entry, node.left, right.left), right.right);
+        }
+        return new Node(node.entry, node.left, right);
+    }
+
+    // the tree without the entry, which it must hold
+    private static Node delete(Node node, Entry entry, Comparator<Entry> order) {
+        int c = order.compare(entry, node.entry);
+        if (c < 0) {
+            return new Node(node.entry, delete(node.left, entry, order), node.right);
+        }
+        if (c > 0) {
+            return new Node(node.entry, node.left, delete(node.right, entry, order));
+        }
+        return merge(node.left, node.right);
+    }
+
+    // join two trees whose entries all sort before and after each other
+    private static Node merge(Node low, Node high) {
+        if (low == null) {
+            return high;
+        }
+        if (high == null) {
+            return low;
+        }
+        if (low.entry.priority > high.entry.priority) {
+            return new Node(low.entry, low.left, merge(low.right, high));
+        }
+        return new Node(high.entry, merge(low, high.left), high.right);
+    }
+
+    /**
+     * A song with its join order and the rating it is sorted by
+     */
+    private static final class Entry {
+        private final Song song;
+        private final long seq;
+        private final int rating;
+        // treap priority, random-like but the same for every entry of a song
+        private final int priority;
+
+        Entry(Song song, long seq, int rating) {
+            this.song = song;
+            this.seq = seq;
+            this.rating = rating;
+            this.priority = Long.hashCode(seq * 0x9E3779B97F4A7C15L);
+        }
+    }
+
+    /**
+     * A tree node; it never changes once made
+     */
+    private static final class Node {
+        private final Entry entry;
+        private final Node left;
+        private final Node right;
+
+        Node(Entry entry, Node left, Node right) {
+            this.entry = entry;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
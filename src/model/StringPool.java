@@ -0,0 +1,58 @@
+package model;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * This class canonicalizes the metadata strings shared by many songs and
+ * albums (artist, album title and genre), so that equal values loaded from
+ * the catalog files or from any user library file are one String instance.
+ * The pool only holds weak references: a string leaves it once no song or
+ * album uses it any more, e.g. after its albums are removed from the catalog
+ * or its user logs out
+ */
+final class StringPool {
+
+    // -Dmodel.stringPool.disabled=true turns pooling off, for measurements
+    private static final boolean ENABLED = !Boolean.getBoolean("model.stringPool.disabled");
+    // independently locked parts of the pool, so parallel loads rarely wait
+    private static final int STRIPES = 16;
+    private static final Stripe[] POOL = new Stripe[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            POOL[i] = new Stripe();
+        }
+    }
+
+    // each string maps to a weak reference to itself, so the entry does not
+    // keep its own key alive
+    private static final class Stripe extends WeakHashMap<String, WeakReference<String>> {
+    }
+
+    private StringPool() {
+    }
+
+    /**
+     * Get the shared instance of a string
+     * @param value input string, may be null
+     * @return the pooled string equal to the input, or null for null
+     */
+    static String canonical(String value) {
+        if (value == null || !ENABLED) {
+            return value;
+        }
+        int hash = value.hashCode();
+        Map<String, WeakReference<String>> stripe = POOL[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            WeakReference<String> ref = stripe.get(value);
+            String pooled = ref == null ? null : ref.get();
+            if (pooled != null) {
+                return pooled;
+            }
+            stripe.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the songs of lazily loaded albums. An album only records
+ * its track titles when it is read; its songs are created on first access
+ * and kept in a bounded least recently used cache, so only the albums in use
+ * keep their songs in memory
+ */
+class TrackCache {
+
+    private final Map<Album, List<Song>> cache;
+
+    /**
+     * Constructor
+     * @param capacity maximum number of albums whose songs are kept
+     */
+    TrackCache(int capacity) {
+        // access order makes the eldest entry the least recently used one
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Album, List<Song>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the songs of an album, creating and caching them if they are not
+     * cached
+     * @param album lazily loaded album
+     * @return read-only song list
+     */
+    List<Song> songsOf(Album album) {
+        synchronized (cache) {
+            List<Song> songs = cache.get(album);
+            if (songs != null) {
+                return songs;
+            }
+        }
+        // create outside the lock so other albums can be served meanwhile
+        List<Song> songs = createSongs(album);
+        synchronized (cache) {
+            List<Song> cached = cache.putIfAbsent(album, songs);
+            return cached != null ? cached : songs;
+        }
+    }
+
+    /**
+     * Get the songs of an album for a scan over many albums: cached songs
+     * are returned, and songs that are not cached are created for the caller
+     * only, so a scan never pushes other albums out of the cache
+     * @param album lazily loaded album
+     * @return read-only song list
+     */
+    List<Song> scan(Album album) {
+        synchronized (cache) {
+            List<Song> songs = cache.get(album);
+            if (songs != null) {
+                return songs;
+            }
+        }
+        return createSongs(album);
+    }
+
+    /**
+     * Get the number of albums whose songs are cached
+     * @return number of cached albums
+     */
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static List<Song> createSongs(Album album) {
+        String[] titles = album.songTitles();
+        List<Song> songs = new ArrayList<>(titles.length);
+        for (int i = 0; i < titles.length; i++) {
+            // songs created again get the same ids, so they stay the same songs
+            Song song = new Song(titles[i], album.getArtist(), album.getTitle(), album.getGenre(),
+                    album.firstSongId() + i);
+            song.share();
+            songs.add(song);
+        }
+        return Collections.unmodifiableList(songs);
+    }
+}
@@ -48,12 +48,13 @@ public class UserManager {
     }
 
     /**
-     * Hash password with salt using SHA-256
+     * Hash password with salt using SHA-256, as stored and checked by the
+     * user manager; public so tools writing user files stay in step
      * @param password plain text password
      * @param salt salt string
      * @return hashed password
      */
-    private String hashPassword(String password, String salt) {
+    public static String hashPassword(String password, String salt) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
             md.update(salt.getBytes(StandardCharsets.UTF_8));
@@ -0,0 +1,267 @@
+package test;
+
+import model.Album;
+import model.ConcurrentLibraryModel;
+import model.LibraryModel;
+import model.PlayList;
+import model.Song;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrentLibraryModelTest {
+    private static final int THREADS = 8;
+    private static final int SONGS = 2000;
+    private static final int PLAYS_PER_THREAD = 20000;
+
+    private ConcurrentLibraryModel library;
+    private List<Song> songs;
+
+    @Before
+    public void setUp() {
+        library = new ConcurrentLibraryModel();
+        songs = new ArrayList<>();
+        for (int i = 0; i < SONGS; i++) {
+            Song song = new Song("Song " + i, "Artist " + (i % 5), "Album " + (i % 10));
+            songs.add(song);
+            library.addSongToLibrary(song);
+        }
+    }
+
+    // run the tasks at the same time and rethrow the first failure
+    private static void runTogether(List<Runnable> tasks) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (Runnable task : tasks) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.peek());
+        }
+    }
+
+    @Test
+    public void testNoLostPlayCounts() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < PLAYS_PER_THREAD; i++) {
+                    library.playSong(songs.get(i % SONGS));
+                }
+            });
+            // readers running over the same library must never fail
+            tasks.add(() -> {
+                for (int i = 0; i < PLAYS_PER_THREAD / 10; i++) {
+                    assertTrue(library.getMostPlayed().size() <= 10);
+                    assertTrue(library.getRecentlyPlayed().size() <= library.getRecentLimit());
+                    assertEquals(SONGS, library.getSortedSongs("title").size());
+                    library.getPlayLists().forEach(PlayList::getSongs);
+                }
+            });
+        }
+        runTogether(tasks);
+
+        int total = 0;
+        for (Song song : songs) {
+            assertEquals(THREADS * PLAYS_PER_THREAD / SONGS, library.getPlayCount(song));
+            total += library.getPlayCount(song);
+        }
+        assertEquals(THREADS * PLAYS_PER_THREAD, total);
+        assertEquals(10, library.getMostPlayed().size());
+    }
+
+    @Test
+    public void testNoCorruptedPlaylists() throws Exception {
+        library.createPlayList("Shared");
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            tasks.add(() -> {
+                String own = "Own " + thread;
+                assertTrue(library.createPlayList(own));
+                for (Song song : songs) {
+                    library.addSongToPlayList(song, own);
+                    // every thread tries to add every song; only one may win
+                    library.addSongToPlayList(song, "Shared");
+                    library.playSong(song);
+                    library.rateSong(song, 1 + thread % 5);
+                }
+            });
+            tasks.add(() -> {
+                for (int i = 0; i < 200; i++) {
+                    for (PlayList playList : library.getPlayLists()) {
+                        List<Song> listed = playList.getSongs();
+                        assertEquals(listed.size(), new HashSet<>(listed).size());
+                    }
+                    library.searchSongByArtist("Artist 1");
+                    library.getSortedSongs("rating");
+                }
+            });
+        }
+        runTogether(tasks);
+
+        assertEquals(songs, library.searchPlayListByTitle("Shared").getSongs());
+        for (int t = 0; t < THREADS; t++) {
+            assertEquals(songs, library.searchPlayListByTitle("Own " + t).getSongs());
+        }
+        assertEquals(3 + 1 + THREADS, library.getPlayLists().size());
+        for (Song song : songs) {
+            assertEquals(THREADS, library.getPlayCount(song));
+        }
+    }
+
+    @Test
+    public void testRemovalDuringPlays() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < PLAYS_PER_THREAD; i++) {
+                    library.playSong(songs.get(i % SONGS));
+                }
+            });
+        }
+        tasks.add(() -> {
+            for (int i = 0; i < SONGS; i += 2) {
+                library.removeSongFromLibrary(songs.get(i));
+            }
+        });
+        runTogether(tasks);
+
+        for (int i = 0; i < SONGS; i++) {
+            Song song = songs.get(i);
+            if (i % 2 == 0) {
+                assertFalse(library.containsSong(song));
+                assertEquals(0, library.getPlayCount(song));
+                assertFalse(library.getMostPlayed().contains(song));
+                assertFalse(library.getRecentlyPlayed().contains(song));
+            } else {
+                assertEquals(THREADS * PLAYS_PER_THREAD / SONGS, library.getPlayCount(song));
+            }
+        }
+    }
+
+    @Test
+    public void testAddSongsWhileReading() throws Exception {
+        int added = 20000;
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            tasks.add(() -> {
+                for (int i = thread; i < added; i += THREADS) {
+                    Song song = new Song("New " + i, "Artist " + (i % 5), "Album " + (i % 10));
+                    assertTrue(library.addSongToLibrary(song));
+                    library.playSong(song);
+                }
+            });
+            // the library only grows, and every listing is consistent
+            tasks.add(() -> {
+                int last = 0;
+                for (int i = 0; i < 200; i++) {
+                    int size = library.getLibrary().size();
+                    assertTrue(size >= last);
+                    last = size;
+                    List<Song> sorted = library.getSortedSongs("title", 100);
+                    assertEquals(100, new HashSet<>(sorted).size());
+                }
+            });
+        }
+        runTogether(tasks);
+
+        assertEquals(SONGS + added, library.getLibrary().size());
+        assertEquals(SONGS + added, library.getSortedSongs("artist").size());
+        assertEquals(1, library.getPlayCount(new Song("New 123", "Artist 3", "Album 3")));
+    }
+
+    @Test
+    public void testReadsDoNotWaitForWriter() throws Exception {
+        library.playSong(songs.get(1));
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Album album = new Album("Slow", "Artist", "Pop", 2020) {
+            @Override
+            public List<Song> getSongs() {
+                // hold the write open until the reads are done
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return List.of(new Song("Slow 1", "Artist", "Slow"));
+            }
+        };
+        Thread writer = new Thread(() -> library.addAlbumSongsToLibrary(album));
+        writer.start();
+        try {
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+            // the reads see the version before the write, without blocking
+            CountDownLatch read = new CountDownLatch(1);
+            runTogether(List.of(() -> {
+                assertEquals(SONGS, library.getLibrary().size());
+                assertEquals(1, library.getPlayCount(songs.get(1)));
+                assertEquals(SONGS, library.getSortedSongs("title").size());
+                assertEquals(List.of(songs.get(1)), library.getMostPlayed());
+                read.countDown();
+            }, () -> {
+                try {
+                    assertTrue(read.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    release.countDown();
+                }
+            }));
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+        assertEquals(SONGS + 1, library.getLibrary().size());
+    }
+
+    @Test
+    public void testSavedAsPlainLibrary() throws Exception {
+        library.playSong(songs.get(3));
+        library.markSongAsFavorite(songs.get(4));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(library);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            LibraryModel copy = (LibraryModel) in.readObject();
+            assertEquals(LibraryModel.class, copy.getClass());
+            assertEquals(songs, copy.getLibrary());
+            assertEquals(1, copy.getPlayCount(songs.get(3)));
+            assertEquals(List.of(songs.get(4)), copy.getFavorites());
+
+            ConcurrentLibraryModel shared = new ConcurrentLibraryModel(copy);
+            assertEquals(List.of(songs.get(3)), shared.getMostPlayed());
+            assertEquals(List.of(songs.get(4)), shared.searchPlayListByTitle("Favorites").getSongs());
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package test;
+
+import model.Album;
+import model.LibraryModel;
+import model.Song;
+import model.UserManager;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * This class writes a synthetic catalog and synthetic users for scale
+ * testing, in the same layout the application reads:
+ *   albums/albums.txt and albums/Title_Artist.txt
+ *   users.json and userdata/username.dat
+ * The output only depends on the sizes and the seed, so perf runs can be
+ * repeated on identical data. Every user's password is its user name.
+ * Run it, then start the application from the output directory:
+ *   java test.DataGenerator outputDir albumCount userCount [seed]
+ */
+public class DataGenerator {
+
+    private static final String[] WORDS = {"Love", "Night", "Heart", "Fire", "Rain", "Road",
+            "Home", "Dream", "Light", "River", "Blue", "Gold", "Summer", "Ghost", "City",
+            "Ocean", "Wild", "Silver", "Morning", "Shadow", "Echo", "Stone", "Sky", "Dance"};
+    private static final String[] GENRES = {"Pop", "Rock", "Alternative", "Latin",
+            "Traditional Country", "Singer/Songwriter", "Jazz", "Blues", "Folk", "Soul"};
+    private static final int MIN_TRACKS = 8;
+    private static final int MAX_TRACKS = 16;
+    // albums per artist on average
+    private static final int ALBUMS_PER_ARTIST = 4;
+    // whole albums plus single songs in an average library
+    private static final int LIBRARY_ALBUMS = 20;
+    private static final int LIBRARY_SINGLES = 150;
+    private static final int MAX_PLAYLISTS = 8;
+    private static final int PLAYS_PER_SONG = 5;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: java test.DataGenerator outputDir albumCount userCount [seed]");
+            return;
+        }
+        Path root = Paths.get(args[0]);
+        int albumCount = Integer.parseInt(args[1]);
+        int userCount = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        List<Album> albums = writeCatalog(root.resolve("albums"), albumCount, seed);
+        writeUsers(root, userCount, albums, seed);
+        System.out.println("Wrote " + albums.size() + " albums and " + userCount + " users to " + root);
+    }
+
+    /**
+     * Write a catalog of albums. Album titles are unique; artists release
+     * several albums each and songs get titles made of common words, so
+     * title and artist searches have realistic hit counts
+     * @param albumDir directory to write albums.txt and the album files to
+     * @param albumCount number of albums
+     * @param seed random seed
+     * @return the written albums, in albums.txt order
+     * @throws IOException if a file cannot be written
+     */
+    public static List<Album> writeCatalog(Path albumDir, int albumCount, long seed) throws IOException {
+        Random random = new Random(seed);
+        Files.createDirectories(albumDir);
+        int artistCount = Math.max(1, albumCount / ALBUMS_PER_ARTIST);
+        List<Album> albums = new ArrayList<>();
+        List<String> entries = new ArrayList<>();
+        for (int i = 0; i < albumCount; i++) {
+            String title = phrase(random, 1 + random.nextInt(2)) + " " + (i + 1);
+            String artist = "Artist " + (skewed(random, artistCount) + 1);
+            String genre = GENRES[skewed(random, GENRES.length)];
+            int year = 1960 + random.nextInt(65);
+            Album album = new Album(title, artist, genre, year);
+
+            List<String> lines = new ArrayList<>();
+            lines.add(title + "," + artist + "," + genre + "," + year);
+            int tracks = MIN_TRACKS + random.nextInt(MAX_TRACKS - MIN_TRACKS + 1);
+            for (int j = 0; j < tracks; j++) {
+                String song = phrase(random, 1 + random.nextInt(3));
+                album.addSong(new Song(song, artist, title, genre));
+                lines.add(song);
+            }
+            Files.write(albumDir.resolve(title + "_" + artist + ".txt"), lines, StandardCharsets.UTF_8);
+            entries.add(title + "," + artist);
+            albums.add(album);
+        }
+        Files.write(albumDir.resolve("albums.txt"), entries, StandardCharsets.UTF_8);
+        return albums;
+    }
+
+    /**
+     * Write users named user1, user2, ... with their libraries. Popular
+     * albums show up in many libraries; each user gets a few playlists,
+     * ratings, favorites and a play history skewed towards a few songs
+     * @param root directory to write users.json and userdata/ to
+     * @param userCount number of users
+     * @param albums catalog the libraries are drawn from
+     * @param seed random seed
+     * @throws IOException if a file cannot be written
+     */
+    @SuppressWarnings("unchecked") // json-simple collections are raw types
+    public static void writeUsers(Path root, int userCount, List<Album> albums, long seed)
+            throws IOException {
+        Random random = new Random(seed + 1);
+        Path dataDir = root.resolve("userdata");
+        Files.createDirectories(dataDir);
+        JSONArray userArray = new JSONArray();
+        for (int u = 1; u <= userCount; u++) {
+            String username = "user" + u;
+            byte[] saltBytes = new byte[16];
+            random.nextBytes(saltBytes);
+            String salt = Base64.getEncoder().encodeToString(saltBytes);
+
+            JSONObject userObj = new JSONObject();
+            userObj.put("username", username);
+            userObj.put("passwordHash", UserManager.hashPassword(username, salt));
+            userObj.put("salt", salt);
+            userArray.add(userObj);
+
+            LibraryModel library = generateLibrary(random, albums);
+            try (ObjectOutputStream oos = new ObjectOutputStream(
+                    Files.newOutputStream(dataDir.resolve(username + ".dat")))) {
+                oos.writeObject(library);
+            }
+        }
+        try (FileWriter file = new FileWriter(root.resolve("users.json").toFile(), StandardCharsets.UTF_8)) {
+            file.write(userArray.toJSONString());
+        }
+    }
+
+    /**
+     * Build one user library
+     * @param random random source
+     * @param albums catalog to draw from
+     * @return library model
+     */
+    private static LibraryModel generateLibrary(Random random, List<Album> albums) {
+        LibraryModel library = new LibraryModel();
+        if (albums.isEmpty()) {
+            return library;
+        }
+        // library songs are copies of the catalog songs, like the viewer adds them
+        int wholeAlbums = random.nextInt(2 * LIBRARY_ALBUMS + 1);
+        for (int i = 0; i < wholeAlbums; i++) {
+            for (Song song : albums.get(skewed(random, albums.size())).getSongs()) {
+                library.addSongToLibrary(copy(song));
+            }
+        }
+        int singles = random.nextInt(2 * LIBRARY_SINGLES + 1);
+        for (int i = 0; i < singles; i++) {
+            List<Song> songs = albums.get(skewed(random, albums.size())).getSongs();
+            library.addSongToLibrary(copy(songs.get(random.nextInt(songs.size()))));
+        }
+        List<Song> songs = new ArrayList<>(library.getLibrary());
+        if (songs.isEmpty()) {
+            return library;
+        }
+
+        int playlists = random.nextInt(MAX_PLAYLISTS + 1);
+        for (int p = 0; p < playlists; p++) {
+            String name = phrase(random, 2) + " Mix " + (p + 1);
+            library.createPlayList(name);
+            int size = 5 + random.nextInt(46);
+            for (int i = 0; i < size; i++) {
+                library.addSongToPlayList(songs.get(random.nextInt(songs.size())), name);
+            }
+        }
+
+        for (Song song : songs) {
+            if (random.nextInt(4) == 0) {
+                library.rateSong(song, 1 + random.nextInt(5));
+            } else if (random.nextInt(20) == 0) {
+                library.markSongAsFavorite(song);
+            }
+        }
+
+        // a few songs get most of the plays
+        int plays = random.nextInt(2 * PLAYS_PER_SONG * songs.size() + 1);
+        for (int i = 0; i < plays; i++) {
+            library.playSong(songs.get(skewed(random, songs.size())));
+        }
+        return library;
+    }
+
+    private static Song copy(Song song) {
+        return new Song(song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre());
+    }
+
+    // random index in [0, n) where low indexes are much more likely
+    private static int skewed(Random random, int n) {
+        return (int) (n * Math.pow(random.nextDouble(), 3));
+    }
+
+    private static String phrase(Random random, int words) {
+        Set<String> picked = new LinkedHashSet<>();
+        while (picked.size() < words) {
+            picked.add(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return String.join(" ", picked);
+    }
+}
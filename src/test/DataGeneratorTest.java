@@ -0,0 +1,73 @@
+package test;
+
+import model.Album;
+import model.LibraryModel;
+import model.MusicStore;
+import model.Song;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DataGeneratorTest {
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("generator-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCatalogLoads() throws IOException {
+        List<Album> albums = DataGenerator.writeCatalog(root.resolve("albums"), 50, 1);
+        MusicStore store = new MusicStore(root.resolve("albums"), false, 1);
+        assertTrue(store.getLoadErrors().isEmpty());
+        assertEquals(50, store.getAlbums().size());
+        assertEquals(albums.get(0).getTitle(), store.getAlbums().get(0).getTitle());
+        assertEquals(albums.get(0).getSongs(), store.getAlbums().get(0).getSongs());
+    }
+
+    @Test
+    public void testSameSeedSameData() throws IOException {
+        List<Album> albums = DataGenerator.writeCatalog(root.resolve("a"), 30, 7);
+        DataGenerator.writeUsers(root.resolve("a"), 2, albums, 7);
+        albums = DataGenerator.writeCatalog(root.resolve("b"), 30, 7);
+        DataGenerator.writeUsers(root.resolve("b"), 2, albums, 7);
+        for (String file : new String[] {"albums.txt", "users.json", "userdata/user2.dat"}) {
+            assertArrayEquals(Files.readAllBytes(root.resolve("a").resolve(file)),
+                    Files.readAllBytes(root.resolve("b").resolve(file)));
+        }
+    }
+
+    @Test
+    public void testUserLibraries() throws Exception {
+        List<Album> albums = DataGenerator.writeCatalog(root.resolve("albums"), 100, 3);
+        DataGenerator.writeUsers(root, 3, albums, 3);
+        assertTrue(Files.readString(root.resolve("users.json")).contains("\"user3\""));
+        try (ObjectInputStream ois = new ObjectInputStream(
+                Files.newInputStream(root.resolve("userdata/user1.dat")))) {
+            LibraryModel library = (LibraryModel) ois.readObject();
+            MusicStore store = new MusicStore(root.resolve("albums"), false, 1);
+            for (Song song : library.getLibrary()) {
+                assertNotNull(store.getAlbumForSong(song));
+            }
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package test;
+import model.Album;
 import model.LibraryModel;
 import model.MusicStore;
 import model.Song;
 import model.PlayList;
+import model.PlayEvent;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
 public class LibraryModelTest {
@@ -41,6 +49,17 @@ public class LibraryModelTest {
         assertEquals(song1, recent.get(0));
     }
 
+    @Test
+    public void testFuzzySearchSongByTitle() {
+        List<Song> songs = libraryModel.fuzzySearchSongByTitle("day dreamer", 5);
+        assertEquals(1, songs.size());
+        assertEquals(song1, songs.get(0));
+
+        // the index follows library changes
+        libraryModel.removeSongFromLibrary(song1);
+        assertTrue(libraryModel.fuzzySearchSongByTitle("day dreamer", 5).isEmpty());
+    }
+
     @Test
     public void testMostPlayedSongs() {
         libraryModel.playSong(song1);
@@ -135,4 +154,396 @@ public class LibraryModelTest {
         assertFalse(libraryModel.removeSongFromLibrary(fakeSong));
     }
 
+    @Test
+    public void testLibraryKeepsInsertionOrder() {
+        assertFalse(libraryModel.addSongToLibrary(new Song("Daydreamer", "Adele", "21")));
+        assertEquals(List.of(song1, song2, song3), libraryModel.getLibrary());
+        assertTrue(libraryModel.containsSong(song2));
+
+        libraryModel.removeSongFromLibrary(song2);
+        libraryModel.addSongToLibrary(song2);
+        assertEquals(List.of(song1, song3, song2), libraryModel.getLibrary());
+    }
+
+    @Test
+    public void testLibrarySerialization() throws Exception {
+        libraryModel.playSong(song2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(libraryModel);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            LibraryModel copy = (LibraryModel) ois.readObject();
+            assertEquals(libraryModel.getLibrary(), copy.getLibrary());
+            assertTrue(copy.containsSong(song3));
+            assertEquals(1, copy.getPlayCount(song2));
+        }
+    }
+
+    @Test
+    public void testRecentlyPlayedLimit() {
+        LibraryModel library = new LibraryModel(1000);
+        for (int i = 0; i < 1500; i++) {
+            Song song = new Song("Song " + i, "Artist", "Album");
+            library.addSongToLibrary(song);
+            library.playSong(song);
+        }
+        library.playSong(new Song("Song 800", "Artist", "Album"));
+        List<Song> recent = library.getRecentlyPlayed();
+        assertEquals(1000, recent.size());
+        assertEquals("Song 800", recent.get(0).getTitle());
+        assertEquals("Song 1499", recent.get(1).getTitle());
+        assertEquals("Song 500", recent.get(999).getTitle());
+
+        library.setRecentLimit(3);
+        assertEquals(3, library.getRecentlyPlayed().size());
+        assertEquals(10, new LibraryModel().getRecentLimit());
+    }
+
+    @Test
+    public void testMostPlayedRanking() {
+        libraryModel.playSong(song3);
+        libraryModel.playSong(song1);
+        libraryModel.playSong(song2);
+        libraryModel.playSong(song1);
+        // song3 reached one play before song2
+        assertEquals(List.of(song1, song3, song2), libraryModel.getMostPlayed());
+
+        libraryModel.playSong(song2);
+        libraryModel.playSong(song2);
+        assertEquals(List.of(song2, song1, song3), libraryModel.getMostPlayed());
+
+        libraryModel.removeSongFromLibrary(song2);
+        assertEquals(List.of(song1, song3), libraryModel.getMostPlayed());
+    }
+
+    @Test
+    public void testGenreMixFollowsLibrary() {
+        LibraryModel library = new LibraryModel();
+        for (int i = 0; i < 9; i++) {
+            library.addSongToLibrary(new Song("Song " + i, "Artist", "Album", "Jazz"));
+        }
+        assertNull(library.searchPlayListByTitle("Jazz Mix"));
+
+        Song tenth = new Song("Song 9", "Artist", "Album", "Jazz");
+        library.addSongToLibrary(tenth);
+        PlayList mix = library.searchPlayListByTitle("Jazz Mix");
+        assertNotNull(mix);
+        assertEquals(10, mix.getSongs().size());
+
+        library.addSongToLibrary(new Song("Song 10", "Artist", "Album", "Jazz"));
+        assertEquals(11, mix.getSongs().size());
+        library.removeSongFromLibrary(tenth);
+        assertEquals(10, mix.getSongs().size());
+        assertFalse(mix.getSongs().contains(tenth));
+    }
+
+    @Test
+    public void testFavoritesPlaylistFollowsRating() {
+        libraryModel.rateSong(song2, 5);
+        assertTrue(libraryModel.searchPlayListByTitle("Favorites").getSongs().contains(song2));
+    }
+
+    @Test
+    public void testAutoPlaylistsAreViews() throws Exception {
+        PlayList mostPlayed = libraryModel.searchPlayListByTitle("Most Played");
+        assertTrue(mostPlayed.isAutoGenerated());
+        assertTrue(mostPlayed.getSongs().isEmpty());
+        libraryModel.playSong(song3);
+        assertEquals(List.of(song3), mostPlayed.getSongs());
+
+        assertFalse(libraryModel.createPlayList("Favorites"));
+        assertFalse(libraryModel.addSongToPlayList(song1, "Recently Played"));
+
+        libraryModel.createPlayList("Mine");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(libraryModel);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            LibraryModel copy = (LibraryModel) ois.readObject();
+            assertEquals(4, copy.getPlayLists().size());
+            assertEquals(List.of(song3), copy.searchPlayListByTitle("Most Played").getSongs());
+        }
+    }
+
+    @Test
+    public void testStatsFollowEqualSongs() {
+        // an equal copy of a library song shares its play count and favorite
+        Song copy = new Song("Daydreamer", "Adele", "21");
+        libraryModel.playSong(song1);
+        libraryModel.playSong(copy);
+        assertEquals(2, libraryModel.getPlayCount(song1));
+        assertTrue(libraryModel.markSongAsFavorite(song1));
+        assertFalse(libraryModel.markSongAsFavorite(copy));
+
+        // removing the song forgets its statistics
+        libraryModel.removeSongFromLibrary(copy);
+        assertEquals(0, libraryModel.getPlayCount(song1));
+        assertTrue(libraryModel.getFavorites().isEmpty());
+        assertTrue(libraryModel.getRecentlyPlayed().isEmpty());
+        assertTrue(libraryModel.getMostPlayed().isEmpty());
+    }
+
+    @Test
+    public void testRecordPlays() {
+        Song outside = new Song("Rolling in the Deep", "Adele", "21");
+        List<PlayEvent> events = List.of(
+                new PlayEvent(song2, 300),
+                new PlayEvent(song1, 100),
+                new PlayEvent(outside, 150),
+                new PlayEvent(song3, 200),
+                new PlayEvent(song1, 250));
+        assertEquals(4, libraryModel.recordPlays(events));
+
+        // same result as playing the songs one by one in time order
+        assertEquals(2, libraryModel.getPlayCount(song1));
+        assertEquals(0, libraryModel.getPlayCount(outside));
+        assertEquals(List.of(song1, song3, song2), libraryModel.getMostPlayed());
+        assertEquals(List.of(song2, song1, song3), libraryModel.getRecentlyPlayed());
+    }
+
+    @Test
+    public void testSortedSongsFollowChanges() {
+        assertEquals(List.of(song1, song2, song3), libraryModel.getSortedSongs("title"));
+        libraryModel.rateSong(song2, 4);
+        libraryModel.rateSong(song3, 4);
+        libraryModel.rateSong(song1, 2);
+        // same rating: library order
+        assertEquals(List.of(song2, song3, song1), libraryModel.getSortedSongs("rating"));
+        assertEquals(List.of(song2), libraryModel.getSortedSongs("rating", 1));
+
+        Song song4 = new Song("Chasing Pavements", "Adele", "19");
+        libraryModel.addSongToLibrary(song4);
+        libraryModel.removeSongFromLibrary(song2);
+        assertEquals(List.of(song4, song1), libraryModel.getSortedSongs("title", 2));
+        assertEquals(List.of(song3, song1, song4), libraryModel.getSortedSongs("rating"));
+        assertEquals(List.of(song1, song3, song4), libraryModel.getSortedSongs("none"));
+    }
+
+    @Test
+    public void testRemovalCascadesToHoldingPlaylists() throws Exception {
+        libraryModel.createPlayList("A");
+        libraryModel.createPlayList("B");
+        libraryModel.addSongToPlayList(song1, "A");
+        libraryModel.addSongToPlayList(song2, "A");
+        libraryModel.addSongToPlayList(song1, "B");
+
+        // the reverse index is rebuilt when the library is loaded
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(libraryModel);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            LibraryModel copy = (LibraryModel) in.readObject();
+            assertTrue(copy.removeSongFromLibrary(song1));
+            assertEquals(List.of(song2), copy.searchPlayListByTitle("A").getSongs());
+            assertTrue(copy.searchPlayListByTitle("B").getSongs().isEmpty());
+        }
+
+        assertTrue(libraryModel.removeSongFromPlayList("Daydreamer", "Adele", "A"));
+        assertEquals(List.of(song2), libraryModel.searchPlayListByTitle("A").getSongs());
+        assertEquals(List.of(song1), libraryModel.searchPlayListByTitle("B").getSongs());
+        assertFalse(libraryModel.containsSong(song1));
+    }
+
+    @Test
+    public void testRemoveSongsFromLibrary() {
+        libraryModel.createPlayList("A");
+        libraryModel.addSongToPlayList(song1, "A");
+        libraryModel.addSongToPlayList(song2, "A");
+        libraryModel.addSongToPlayList(song3, "A");
+        libraryModel.markSongAsFavorite(song1);
+        libraryModel.markSongAsFavorite(song2);
+        libraryModel.playSong(song1);
+        libraryModel.playSong(song3);
+
+        Song outside = new Song("Rolling in the Deep", "Adele", "21");
+        assertEquals(2, libraryModel.removeSongsFromLibrary(List.of(song1, song3, outside)));
+        assertEquals(List.of(song2), libraryModel.getLibrary());
+        assertEquals(List.of(song2), libraryModel.getFavorites());
+        assertEquals(List.of(song2), libraryModel.searchPlayListByTitle("A").getSongs());
+        assertEquals(0, libraryModel.getPlayCount(song1));
+        assertTrue(libraryModel.getRecentlyPlayed().isEmpty());
+        assertTrue(libraryModel.getMostPlayed().isEmpty());
+    }
+
+    @Test
+    public void testCatalogSongsStayUnchanged() {
+        Album album = store.searchAlbumByTitle("21").get(0);
+        Song shared = album.getSongs().get(0);
+        libraryModel.addAlbumSongsToLibrary(album);
+        assertTrue(libraryModel.rateSong(shared, 4));
+        assertTrue(libraryModel.markSongAsFavorite(album.getSongs().get(1)));
+
+        // the library holds its own copies; the catalog songs keep no rating
+        assertEquals(0, shared.getRating());
+        assertFalse(album.getSongs().get(1).isFavorite());
+        Song owned = libraryModel.searchSongByTitle(shared.getTitle()).get(0);
+        assertNotSame(shared, owned);
+        assertEquals(4, owned.getRating());
+        try {
+            shared.setRating(5);
+            fail("catalog songs must be read-only");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(0, shared.getRating());
+        }
+    }
+
+    @Test
+    public void testPlaysRecordTheLibraryCopy() {
+        Album album = store.searchAlbumByTitle("21").get(0);
+        Song shared = album.getSongs().get(0);
+        Song other = album.getSongs().get(1);
+        libraryModel.addAlbumSongsToLibrary(album);
+        libraryModel.rateSong(shared, 4);
+        libraryModel.playSong(shared);
+        libraryModel.recordPlays(List.of(new PlayEvent(other, 1), new PlayEvent(other, 2)));
+
+        Song owned = libraryModel.searchSongByTitle(shared.getTitle()).get(0);
+        Song otherOwned = libraryModel.searchSongByTitle(other.getTitle()).get(0);
+        assertSame(otherOwned, libraryModel.getMostPlayed().get(0));
+        assertSame(owned, libraryModel.getMostPlayed().get(1));
+        assertEquals(4, libraryModel.getMostPlayed().get(1).getRating());
+        assertSame(otherOwned, libraryModel.getRecentlyPlayed().get(0));
+        assertSame(owned, libraryModel.searchPlayListByTitle("Recently Played").getSongs().get(1));
+    }
+
+    @Test
+    public void testStatsFollowSongsAcrossReload() throws Exception {
+        Album album = store.searchAlbumByTitle("21").get(0);
+        Song first = album.getSongs().get(0);
+        Song second = album.getSongs().get(1);
+        libraryModel.addAlbumSongsToLibrary(album);
+        libraryModel.rateSong(second, 5);
+        libraryModel.rateSong(first, 3);
+        libraryModel.playSong(first);
+        libraryModel.playSong(first);
+
+        // songs loaded again get new ids; the catalog songs still find them
+        LibraryModel copy = reload(libraryModel);
+        assertEquals(2, copy.getPlayCount(first));
+        assertEquals(List.of(second), copy.getFavorites());
+        assertFalse(copy.markSongAsFavorite(second));
+        assertEquals(List.of(second, first), copy.getSortedSongs("rating", 2));
+        copy.playSong(first);
+        assertEquals(3, copy.getPlayCount(first));
+        assertEquals(1, copy.getMostPlayed().size());
+
+        // removing a song through an equal one forgets its rating
+        copy.removeSongFromLibrary(new Song(second.getTitle(), second.getArtist(), second.getAlbum()));
+        assertTrue(copy.getFavorites().isEmpty());
+        assertEquals(first, copy.getSortedSongs("rating", 1).get(0));
+        assertTrue(copy.addSongToLibrary(second));
+        List<Song> byRating = copy.getSortedSongs("rating");
+        assertEquals(second, byRating.get(byRating.size() - 1));
+    }
+
+    // save a library, renaming its playlist "Jazz Mox" to "Jazz Mix" in the
+    // saved bytes and hiding the userListsOnly flag, as a file written while
+    // genre mixes were still saved with the user's lists
+    private static LibraryModel reloadAsJazzMix(LibraryModel library) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(library);
+        }
+        byte[] data = bytes.toByteArray();
+        replaceLast(data, "Jazz Mox", 'i');
+        replaceLast(data, "userListsOnly", 'x');
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (LibraryModel) ois.readObject();
+        }
+    }
+
+    // replace the second to last character of every occurrence of a text
+    private static void replaceLast(byte[] data, String text, char replacement) {
+        byte[] from = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + from.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + from.length), from)) {
+                data[i + from.length - 2] = (byte) replacement;
+            }
+        }
+    }
+
+    private static LibraryModel reload(LibraryModel library) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(library);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (LibraryModel) ois.readObject();
+        }
+    }
+
+    private static long countPlayLists(LibraryModel library, String name) {
+        return library.getPlayLists().stream().filter(p -> p.getListName().equals(name)).count();
+    }
+
+    @Test
+    public void testUserMixSurvivesReload() throws Exception {
+        Song jazz = new Song("Jazz 0", "Artist", "Album", "Jazz");
+        libraryModel.addSongToLibrary(jazz);
+        assertTrue(libraryModel.createPlayList("Jazz Mox"));
+        libraryModel.addSongToPlayList(song1, "Jazz Mox");
+
+        // too few jazz songs when saved: the list is the user's and stays
+        LibraryModel copy = reloadAsJazzMix(libraryModel);
+        PlayList own = copy.searchPlayListByTitle("Jazz Mix");
+        assertNotNull(own);
+        assertFalse(own.isAutoGenerated());
+        assertEquals(List.of(song1), own.getSongs());
+
+        // the genre mix shows up once the genre has enough songs, but only once
+        for (int i = 1; i < 10; i++) {
+            copy.addSongToLibrary(new Song("Jazz " + i, "Artist", "Album", "Jazz"));
+        }
+        assertEquals(1, countPlayLists(copy, "Jazz Mix"));
+        assertSame(own, copy.searchPlayListByTitle("Jazz Mix"));
+    }
+
+    @Test
+    public void testSavedGenreMixReplacedOnReload() throws Exception {
+        assertTrue(libraryModel.createPlayList("Jazz Mox"));
+        for (int i = 0; i < 10; i++) {
+            Song jazz = new Song("Jazz " + i, "Artist", "Album", "Jazz");
+            libraryModel.addSongToLibrary(jazz);
+            libraryModel.addSongToPlayList(jazz, "Jazz Mox");
+        }
+
+        // enough jazz songs when saved: the list was the old stored mix
+        LibraryModel copy = reloadAsJazzMix(libraryModel);
+        assertEquals(1, countPlayLists(copy, "Jazz Mix"));
+        PlayList mix = copy.searchPlayListByTitle("Jazz Mix");
+        assertTrue(mix.isAutoGenerated());
+        assertEquals(10, mix.getSongs().size());
+    }
+
+    @Test
+    public void testMixNamesForUserPlayLists() throws Exception {
+        assertTrue(libraryModel.createPlayList("Road Trip Mix"));
+        assertFalse(libraryModel.createPlayList("Road Trip Mix"));
+        assertFalse(libraryModel.createPlayList("Most Played"));
+        assertFalse(libraryModel.createPlayList("Recently Played"));
+
+        // no jazz mix yet, so the name is free
+        assertTrue(libraryModel.createPlayList("Jazz Mix"));
+        libraryModel.addSongToPlayList(song1, "Jazz Mix");
+        for (int i = 0; i < 10; i++) {
+            libraryModel.addSongToLibrary(new Song("Jazz " + i, "Artist", "Album", "Jazz"));
+            libraryModel.addSongToLibrary(new Song("Blues " + i, "Artist", "Album", "Blues"));
+        }
+        assertFalse(libraryModel.createPlayList("Blues Mix"));
+        assertTrue(libraryModel.searchPlayListByTitle("Blues Mix").isAutoGenerated());
+
+        // the user's list hides the jazz mix, also after a reload
+        LibraryModel copy = reload(libraryModel);
+        assertEquals(1, countPlayLists(copy, "Jazz Mix"));
+        PlayList own = copy.searchPlayListByTitle("Jazz Mix");
+        assertFalse(own.isAutoGenerated());
+        assertEquals(List.of(song1), own.getSongs());
+        assertFalse(copy.searchPlayListByTitle("Road Trip Mix").isAutoGenerated());
+    }
 }
@@ -7,7 +7,16 @@ import model.Song;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import org.junit.Before;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static org.junit.Assert.*;
 
 public class MusicStoreTest {
@@ -32,6 +41,284 @@ public class MusicStoreTest {
         assertFalse(store.searchAlbumByArtist("Adele").isEmpty());
     }
 
+    @Test
+    public void testSearchAfterReload() {
+        int albumCount = store.getAlbums().size();
+        int adeleSongs = store.searchSongByArtist("Adele").size();
+        store.loadAlbum();
+        assertEquals(albumCount, store.getAlbums().size());
+        assertEquals(adeleSongs, store.searchSongByArtist("Adele").size());
+        assertEquals(1, store.searchAlbumByTitle("21").size());
+        assertTrue(store.searchSongByTitle("No Such Song").isEmpty());
+    }
+
+    @Test
+    public void testLoadKeepsListOrder() throws Exception {
+        List<String> entries = Files.readAllLines(Paths.get("albums", "albums.txt"),
+                StandardCharsets.UTF_8);
+        assertTrue(store.getLoadErrors().isEmpty());
+        assertEquals(entries.size(), store.getAlbums().size());
+        for (int i = 0; i < entries.size(); i++) {
+            String[] items = entries.get(i).split(",");
+            assertEquals(items[0], store.getAlbums().get(i).getTitle());
+            assertEquals(items[1], store.getAlbums().get(i).getArtist());
+        }
+    }
+
+    @Test
+    public void testSnapshotMatchesTextLoad() {
+        // the store built in setUp writes the snapshot if it was missing or stale
+        MusicStore cached = new MusicStore();
+        assertTrue(cached.isLoadedFromSnapshot());
+        assertEquals(store.getAlbums().size(), cached.getAlbums().size());
+        for (int i = 0; i < store.getAlbums().size(); i++) {
+            Album expected = store.getAlbums().get(i);
+            Album actual = cached.getAlbums().get(i);
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getArtist(), actual.getArtist());
+            assertEquals(expected.getGenre(), actual.getGenre());
+            assertEquals(expected.getYear(), actual.getYear());
+            assertEquals(expected.getSongs(), actual.getSongs());
+        }
+    }
+
+    @Test
+    public void testSnapshotRewrittenToNewFile() throws Exception {
+        Path root = Files.createTempDirectory("snapshot-test");
+        try {
+            Path dir = root.resolve("albums");
+            List<Album> generated = DataGenerator.writeCatalog(dir, 20, 5);
+            new MusicStore(dir, false, 1);
+            MusicStore mapped = new MusicStore(dir, false, 1);
+            assertTrue(mapped.isLoadedFromSnapshot());
+
+            // the stale snapshot is still in use, so the fresh one is a new file
+            Album edited = generated.get(3);
+            Path file = dir.resolve(edited.getTitle() + "_" + edited.getArtist() + ".txt");
+            Files.write(file, List.of("Brand New Song"), StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND);
+            assertFalse(new MusicStore(dir, false, 1).isLoadedFromSnapshot());
+            MusicStore fresh = new MusicStore(dir, false, 1);
+            assertTrue(fresh.isLoadedFromSnapshot());
+            assertEquals("Brand New Song", fresh.getAlbums().get(3).getSongs()
+                    .get(edited.getSongs().size()).getTitle());
+            try (Stream<Path> files = Files.list(root)) {
+                assertEquals(1, files.filter(path -> path.getFileName().toString()
+                        .startsWith("catalog.snapshot")).count());
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedInstance() {
+        MusicStore shared = MusicStore.getInstance();
+        assertSame(shared, MusicStore.getInstance());
+
+        // a reload publishes a new version and leaves the old one intact
+        List<Album> before = shared.getAlbums();
+        int size = before.size();
+        shared.loadAlbum();
+        assertNotSame(before, shared.getAlbums());
+        assertEquals(size, before.size());
+        assertEquals(size, shared.getAlbums().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCatalogIsReadOnly() {
+        store.getAlbums().get(0).getSongs().add(new Song("Extra", "Adele", "21"));
+    }
+
+    @Test
+    public void testReloadChangedAlbums() {
+        List<Album> before = store.getAlbums();
+        int adeleSongs = store.searchSongByArtist("Adele").size();
+        store.reloadChangedAlbums(List.of(Paths.get("albums", "21_Adele.txt")));
+
+        // only the changed file is parsed again, every other album is reused
+        List<Album> after = store.getAlbums();
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i).getTitle().equals("21")) {
+                assertNotSame(before.get(i), after.get(i));
+            } else {
+                assertSame(before.get(i), after.get(i));
+            }
+        }
+
+        // and the indexes follow the new album object
+        assertEquals(adeleSongs, store.searchSongByArtist("Adele").size());
+        Album album = store.getAlbumForSong(new Song("Rolling in the Deep", "Adele", "21"));
+        assertTrue(after.stream().anyMatch(a -> a == album));
+        assertEquals(1, store.searchAlbumByTitle("21").size());
+    }
+
+    @Test
+    public void testIncrementalReloadMatchesFullLoad() throws Exception {
+        Path root = Files.createTempDirectory("reload-test");
+        try {
+            Path dir = root.resolve("albums");
+            List<Album> generated = DataGenerator.writeCatalog(dir, 120, 3);
+            MusicStore reloaded = new MusicStore(dir, false, 4);
+
+            // an album in the middle gets a new genre, a song title other
+            // albums have and one more song
+            Album edited = generated.get(60);
+            Path file = dir.resolve(edited.getTitle() + "_" + edited.getArtist() + ".txt");
+            List<String> lines = new ArrayList<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+            lines.set(0, edited.getTitle() + "," + edited.getArtist() + ",Gospel," + edited.getYear());
+            lines.set(1, generated.get(0).getSongs().get(0).getTitle());
+            lines.add("Brand New Song");
+            Files.write(file, lines, StandardCharsets.UTF_8);
+            reloaded.reloadChangedAlbums(List.of(file));
+            assertSameSearches(new MusicStore(dir, false, 4), reloaded);
+
+            // an album file is deleted
+            Album deleted = generated.get(90);
+            file = dir.resolve(deleted.getTitle() + "_" + deleted.getArtist() + ".txt");
+            Files.delete(file);
+            reloaded.reloadChangedAlbums(List.of(file));
+            assertSameSearches(new MusicStore(dir, false, 4), reloaded);
+
+            // the list moves the last album to the front and drops another
+            Path list = dir.resolve("albums.txt");
+            List<String> entries = new ArrayList<>(Files.readAllLines(list, StandardCharsets.UTF_8));
+            entries.add(0, entries.remove(entries.size() - 1));
+            entries.remove(30);
+            Files.write(list, entries, StandardCharsets.UTF_8);
+            reloaded.reloadChangedAlbums(List.of(list));
+            assertSameSearches(new MusicStore(dir, false, 4), reloaded);
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    // every search of a reloaded store must answer like a full load
+    private static void assertSameSearches(MusicStore expected, MusicStore actual) {
+        assertEquals(expected.getLoadErrors(), actual.getLoadErrors());
+        assertEquals(describe(expected.getAlbums()), describe(actual.getAlbums()));
+        assertEquals(expected.getAllGenres(), actual.getAllGenres());
+        for (Album album : expected.getAlbums()) {
+            assertEquals(describe(expected.searchAlbumByTitle(album.getTitle())),
+                    describe(actual.searchAlbumByTitle(album.getTitle())));
+            assertEquals(describe(expected.searchAlbumByArtist(album.getArtist())),
+                    describe(actual.searchAlbumByArtist(album.getArtist())));
+            assertEquals(describe(expected.searchAlbumsByGenre(album.getGenre())),
+                    describe(actual.searchAlbumsByGenre(album.getGenre())));
+            assertEquals(expected.searchSongByArtist(album.getArtist()),
+                    actual.searchSongByArtist(album.getArtist()));
+            assertEquals(expected.searchSongsByGenre(album.getGenre()),
+                    actual.searchSongsByGenre(album.getGenre()));
+            assertEquals(expected.fuzzySearchSongByArtist(album.getArtist(), 5),
+                    actual.fuzzySearchSongByArtist(album.getArtist(), 5));
+            for (Song song : album.getSongs()) {
+                assertEquals(expected.searchSongByTitle(song.getTitle()),
+                        actual.searchSongByTitle(song.getTitle()));
+                assertEquals(expected.getAlbums().indexOf(expected.getAlbumForSong(song)),
+                        actual.getAlbums().indexOf(actual.getAlbumForSong(song)));
+                assertEquals(expected.fuzzySearchSongByTitle(song.getTitle(), 5),
+                        actual.fuzzySearchSongByTitle(song.getTitle(), 5));
+            }
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            String prefix = String.valueOf(c);
+            assertEquals(expected.completeSongTitle(prefix, 10), actual.completeSongTitle(prefix, 10));
+            assertEquals(expected.completeAlbumTitle(prefix, 10), actual.completeAlbumTitle(prefix, 10));
+            assertEquals(expected.completeArtist(prefix, 10), actual.completeArtist(prefix, 10));
+        }
+    }
+
+    private static List<String> describe(List<Album> albums) {
+        return albums.stream().map(Album::toString).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testLazyTracksMatchEagerLoad() {
+        MusicStore lazy = new MusicStore(true);
+        assertFalse(lazy.isLoadedFromSnapshot());
+        assertEquals(store.getAlbums().size(), lazy.getAlbums().size());
+        for (int i = 0; i < store.getAlbums().size(); i++) {
+            assertEquals(store.getAlbums().get(i).getSongs(), lazy.getAlbums().get(i).getSongs());
+        }
+        assertEquals(store.searchSongByTitle("Daydreamer"), lazy.searchSongByTitle("Daydreamer"));
+        assertEquals(store.searchSongByArtist("Adele"), lazy.searchSongByArtist("Adele"));
+        assertEquals(store.searchSongsByGenre("Rock"), lazy.searchSongsByGenre("Rock"));
+        assertEquals(store.getAllGenres(), lazy.getAllGenres());
+        assertEquals("21", lazy.getAlbumForSong(new Song("Rolling in the Deep", "Adele", "21")).getTitle());
+    }
+
+    @Test
+    public void testLazyTracksSearchLikeEager() throws Exception {
+        Path root = Files.createTempDirectory("lazy-test");
+        try {
+            Path dir = root.resolve("albums");
+            List<Album> generated = DataGenerator.writeCatalog(dir, 60, 9);
+            MusicStore lazy = new MusicStore(dir, true, 2);
+            assertSameSearches(new MusicStore(dir, false, 2), lazy);
+            for (String genre : lazy.getAllGenres()) {
+                assertEquals(lazy.searchSongsByGenre(genre).size(), lazy.getGenreSongCount(genre));
+            }
+            assertEquals(lazy.getAllSongs().size(), lazy.songs().spliterator().getExactSizeIfKnown());
+
+            // titles of a reloaded album are indexed again
+            Album edited = generated.get(20);
+            Path file = dir.resolve(edited.getTitle() + "_" + edited.getArtist() + ".txt");
+            Files.write(file, List.of("Brand New Song"), StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND);
+            lazy.reloadChangedAlbums(List.of(file));
+            assertEquals(1, lazy.searchSongByTitle("Brand New Song").size());
+            assertSameSearches(new MusicStore(dir, false, 2), lazy);
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testSongAndAlbumStreams() {
+        List<Song> all = store.getAllSongs();
+        assertEquals(all, store.songs().collect(Collectors.toList()));
+        assertEquals(all, store.songs().parallel().collect(Collectors.toList()));
+        assertEquals(all.size(), store.songs().spliterator().getExactSizeIfKnown());
+        assertEquals(store.getAlbums(), store.albums().parallel().collect(Collectors.toList()));
+        assertEquals(store.searchSongsByGenre("Rock").size(),
+                store.songs().parallel().filter(s -> s.getGenre().equals("Rock")).count());
+    }
+
+    @Test
+    public void testCompletion() {
+        List<String> artists = store.completeArtist("a", 10);
+        assertEquals("Adele", artists.get(0));
+        for (String artist : artists) {
+            assertTrue(artist.toLowerCase().startsWith("a"));
+        }
+        assertEquals(2, store.completeArtist("A", 2).size());
+        assertEquals(List.of("Rolling in the Deep"), store.completeSongTitle("rolling", 5));
+        assertTrue(store.completeAlbumTitle("2", 5).contains("21"));
+        assertTrue(store.completeSongTitle("zzz", 5).isEmpty());
+    }
+
+    @Test
+    public void testFuzzySearch() {
+        List<Song> songs = store.fuzzySearchSongByTitle("Chasing Pavement", 5);
+        assertFalse(songs.isEmpty());
+        assertEquals("Chasing Pavements", songs.get(0).getTitle());
+
+        songs = store.fuzzySearchSongByArtist("Maná", 3);
+        assertEquals(3, songs.size());
+        assertEquals("Mana", songs.get(0).getArtist());
+
+        assertEquals("Rolling in the Deep",
+                store.fuzzySearchSongByTitle("rollin in teh deep", 1).get(0).getTitle());
+        assertTrue(store.fuzzySearchSongByTitle("qqqq", 5).isEmpty());
+    }
+
     @Test
     public void testSearchSongsByGenre() {
         List<Song> rockSongs = store.searchSongsByGenre("Rock");
@@ -49,6 +336,23 @@ public class MusicStoreTest {
         assertTrue(genres.contains("Rock"));
     }
 
+    @Test
+    public void testGenreIndex() {
+        List<String> genres = store.getAllGenres();
+        assertEquals(genres.size(), new java.util.HashSet<>(genres).size());
+
+        int songs = 0;
+        for (String genre : genres) {
+            songs += store.getGenreSongCount(genre);
+        }
+        assertEquals(store.getAllSongs().size(), songs);
+
+        assertEquals(store.searchSongsByGenre("Pop"), store.searchSongsByGenre("pOP"));
+        assertEquals(store.getGenreAlbumCount("Pop"), store.searchAlbumsByGenre("POP").size());
+        assertTrue(store.searchSongsByGenre("Polka").isEmpty());
+        assertEquals(0, store.getGenreSongCount("Polka"));
+    }
+
     @Test
     public void testGetAlbumForSong() {
         Song testSong = new Song("Rolling in the Deep", "Adele", "21");
@@ -58,12 +362,53 @@ public class MusicStoreTest {
         assertEquals("Adele", album.getArtist());
     }
 
+    @Test
+    public void testGetAlbumForSongFallbacks() {
+        // album title and artist match even though the song is unknown
+        assertEquals("21", store.getAlbumForSong(new Song("Unknown", "Adele", "21")).getTitle());
+        // song title and artist match even though the album is wrong
+        assertEquals("19", store.getAlbumForSong(new Song("Daydreamer", "Adele", "??")).getTitle());
+        assertNull(store.getAlbumForSong(new Song("Unknown", "Nobody", "None")));
+    }
+
+    @Test
+    public void testAddGenreInfoBulk() {
+        List<Song> songs = List.of(new Song("Rolling in the Deep", "Adele", "21"),
+                new Song("Daydreamer", "Adele", "19"),
+                new Song("Unknown", "Nobody", "None"));
+        assertEquals(2, store.addGenreInfo(songs));
+        assertEquals("Pop", songs.get(0).getGenre());
+        assertEquals("Pop", songs.get(1).getGenre());
+        assertEquals("", songs.get(2).getGenre());
+    }
+
     @Test
     public void testAddGenreInfoToSong() {
         Song song = new Song("Rolling in the Deep", "Adele", "21");
         store.addGenreInfoToSong(song);
         assertEquals("Pop", song.getGenre());
     }
-}
 
+    @Test
+    public void testShardedSearchMatchesUnsharded() {
+        MusicStore sharded = new MusicStore(Paths.get("albums"), false, 4);
+        assertEquals(4, sharded.getShardCount());
+        assertEquals(store.searchSongs(s -> s.getTitle().startsWith("S")),
+                sharded.searchSongs(s -> s.getTitle().startsWith("S")));
+        assertEquals(store.searchAlbums(a -> a.getYear() < 2000).stream()
+                        .map(Album::getTitle).collect(Collectors.toList()),
+                sharded.searchAlbums(a -> a.getYear() < 2000).stream()
+                        .map(Album::getTitle).collect(Collectors.toList()));
+        assertEquals(store.getAllSongs(), sharded.searchSongs(s -> true));
+    }
 
+    @Test
+    public void testSearchSongByKeyword() {
+        List<Song> songs = store.searchSongByKeyword("adele");
+        assertFalse(songs.isEmpty());
+        for (Song song : songs) {
+            assertEquals("Adele", song.getArtist());
+        }
+        assertTrue(store.searchSongByKeyword("no such keyword").isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+package test;
+
+import model.MusicStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures keyword search, which scans every song, over a large synthetic
+ * catalog split into 1, 2, 4, ... shards up to twice the number of cores.
+ * The speedup over one shard should grow about linearly up to the core count:
+ *   java test.ShardBenchmark
+ */
+public class ShardBenchmark {
+
+    private static final int ALBUMS = 20000;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 20;
+    private static final String[] KEYWORDS = {"love", "night", "zz", "river 7", "artist 19"};
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("shard-benchmark");
+        try {
+            Path albumDir = root.resolve("albums");
+            DataGenerator.writeCatalog(albumDir, ALBUMS, 42);
+            int cores = Runtime.getRuntime().availableProcessors();
+
+            double base = 0;
+            for (int shards = 1; shards <= Math.max(2, 2 * cores); shards *= 2) {
+                MusicStore store = new MusicStore(albumDir, false, shards);
+                if (shards == 1) {
+                    System.out.printf("albums=%d songs=%d cores=%d%n", ALBUMS,
+                            store.getAllSongs().size(), cores);
+                }
+                double millis = time(store);
+                if (shards == 1) {
+                    base = millis;
+                }
+                System.out.printf("shards=%-3d %8.2f ms/query  speedup %.2fx%n",
+                        shards, millis, base / millis);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    // average time of one keyword search in milliseconds
+    private static double time(MusicStore store) {
+        int found = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            for (String keyword : KEYWORDS) {
+                found += store.searchSongByKeyword(keyword).size();
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            for (String keyword : KEYWORDS) {
+                found += store.searchSongByKeyword(keyword).size();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found < 0) {
+            System.out.println(found);
+        }
+        return elapsed / 1e6 / (RUNS * KEYWORDS.length);
+    }
+}
@@ -59,4 +59,14 @@ public class SongTest {
         String expectedString = String.format("%-50s%-50s%-30s%s%s", "Remember me", "Lisa", "Lily like it", " ★5", " ♥");
         assertEquals(expectedString, song.toString());
     }
+
+    @Test
+    public void testSharedMetadataStrings() {
+        Song song1 = new Song("Hello", new String("Adele"), new String("25"), new String("Pop"));
+        Song song2 = new Song("Water Under the Bridge", new String("Adele"), new String("25"));
+        song2.setGenre(new String("Pop"));
+        assertSame(song1.getArtist(), song2.getArtist());
+        assertSame(song1.getAlbum(), song2.getAlbum());
+        assertSame(song1.getGenre(), song2.getGenre());
+    }
 }
@@ -0,0 +1,91 @@
+package test;
+
+import model.Album;
+import model.LibraryModel;
+import model.Song;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap used by a large synthetic catalog plus several user
+ * libraries loaded from their serialized form.
+ * Run it twice and compare the results:
+ *   java test.StringPoolBenchmark
+ *   java -Dmodel.stringPool.disabled=true test.StringPoolBenchmark
+ */
+public class StringPoolBenchmark {
+
+    private static final int ALBUMS = 20000;
+    private static final int SONGS_PER_ALBUM = 12;
+    private static final int ARTISTS = 2000;
+    private static final int USERS = 5;
+    private static final int SONGS_PER_USER = 40000;
+    private static final String[] GENRES = {"Pop", "Rock", "Alternative", "Latin",
+            "Traditional Country", "Singer/Songwriter", "Jazz", "Blues", "Folk", "Soul"};
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(42);
+        long before = usedHeap();
+
+        // every album file is parsed on its own, so its header strings are new objects
+        List<Album> catalog = new ArrayList<>();
+        List<Song> allSongs = new ArrayList<>();
+        for (int i = 0; i < ALBUMS; i++) {
+            String artist = new String("Artist " + random.nextInt(ARTISTS));
+            String title = new String("Album " + i);
+            String genre = new String(GENRES[random.nextInt(GENRES.length)]);
+            Album album = new Album(title, artist, genre, 1960 + random.nextInt(60));
+            for (int j = 0; j < SONGS_PER_ALBUM; j++) {
+                Song song = new Song("Song " + i + "-" + j, artist, title, genre);
+                album.addSong(song);
+                allSongs.add(song);
+            }
+            catalog.add(album);
+        }
+
+        // every user library is deserialized from its own file
+        List<LibraryModel> libraries = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            LibraryModel library = new LibraryModel();
+            for (int k = 0; k < SONGS_PER_USER; k++) {
+                Song song = allSongs.get(random.nextInt(allSongs.size()));
+                library.addSongToLibrary(new Song(song.getTitle(), song.getArtist(),
+                        song.getAlbum(), song.getGenre()));
+            }
+            libraries.add(roundTrip(library));
+        }
+
+        long used = usedHeap() - before;
+        System.out.printf("albums=%d songs=%d users=%d librarySongs=%d%n", catalog.size(),
+                allSongs.size(), libraries.size(), USERS * SONGS_PER_USER);
+        System.out.printf("string pool %s, retained heap: %.1f MB%n",
+                Boolean.getBoolean("model.stringPool.disabled") ? "disabled" : "enabled",
+                used / (1024.0 * 1024.0));
+    }
+
+    private static LibraryModel roundTrip(LibraryModel library) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(library);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (LibraryModel) ois.readObject();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -10,6 +10,9 @@ import java.util.Scanner;
  */
 public class Viewer {
 
+    // number of completions shown when a store search finds nothing
+    private static final int SUGGESTION_LIMIT = 5;
+
     private Scanner scanner;
     private UserManager userManager;
 
@@ -86,6 +89,34 @@ public class Viewer {
         System.out.println();
     }
 
+    /**
+     * Print the completions offered when a store search finds nothing
+     * @param suggestions list of suggested titles or artists
+     * @return true if anything was printed, else false
+     */
+    private boolean showSuggestions(List<String> suggestions) {
+        if (suggestions.isEmpty()) {
+            return false;
+        }
+        System.out.println("Did you mean:");
+        for (String suggestion : suggestions) {
+            System.out.println("  " + suggestion);
+        }
+        return true;
+    }
+
+    /**
+     * Print the closest songs found by a typo-tolerant search
+     * @param songs list of closest songs
+     */
+    private void showClosestSongs(List<Song> songs) {
+        if (songs.isEmpty()) {
+            return;
+        }
+        System.out.println("Closest matches:");
+        displaySongs(songs);
+    }
+
     /**
      * Search the store song by the title
      */
@@ -96,6 +127,9 @@ public class Viewer {
         List<Song> songs = musicStore.searchSongByTitle(title);
         if (songs.isEmpty()) {
             System.out.println("Error: Song does not exist");
+            if (!showSuggestions(musicStore.completeSongTitle(title, SUGGESTION_LIMIT))) {
+                showClosestSongs(musicStore.fuzzySearchSongByTitle(title, SUGGESTION_LIMIT));
+            }
             return;
         }
 
@@ -112,6 +146,9 @@ public class Viewer {
         List<Song> songs = musicStore.searchSongByArtist(artist);
         if (songs.isEmpty()) {
             System.out.println("Error: Song does not exist");
+            if (!showSuggestions(musicStore.completeArtist(artist, SUGGESTION_LIMIT))) {
+                showClosestSongs(musicStore.fuzzySearchSongByArtist(artist, SUGGESTION_LIMIT));
+            }
             return;
         }
 
@@ -128,6 +165,7 @@ public class Viewer {
         List<Album> albums = musicStore.searchAlbumByTitle(title);
         if (albums.isEmpty()) {
             System.out.println("Error: Album does not exist");
+            showSuggestions(musicStore.completeAlbumTitle(title, SUGGESTION_LIMIT));
             return;
         }
 
@@ -147,6 +185,7 @@ public class Viewer {
         List<Album> albums = musicStore.searchAlbumByArtist(artist);
         if (albums.isEmpty()) {
             System.out.println("Error: Album does not exist");
+            showSuggestions(musicStore.completeArtist(artist, SUGGESTION_LIMIT));
             return;
         }
 
@@ -202,9 +241,15 @@ public class Viewer {
                 break;
             }
 
-            // User is now authenticated
-            MusicStore musicStore = new MusicStore();
+            // User is now authenticated, every session shares the same catalog
+            MusicStore musicStore = MusicStore.getInstance();
+            // pick up album files added or edited while the program runs
+            musicStore.startWatching();
             LibraryModel libraryModel = userManager.getCurrentUser().getUserLibrary();
+            // fill in genres for songs saved before they were tracked, then
+            // file the songs under their genre mixes
+            musicStore.addGenreInfo(libraryModel.getLibrary());
+            libraryModel.refreshAutoPlaylists();
 
             boolean userSessionActive = true;
             while (userSessionActive) {
@@ -483,7 +528,8 @@ public class Viewer {
         List<String> availableGenres = musicStore.getAllGenres();
         System.out.println("Available genres:");
         for (int i = 0; i < availableGenres.size(); i++) {
-            System.out.println(i + ". " + availableGenres.get(i));
+            String genre = availableGenres.get(i);
+            System.out.println(i + ". " + genre + " (" + musicStore.getGenreSongCount(genre) + " songs)");
         }
 
         System.out.print("Select a genre number: ");
@@ -723,7 +769,7 @@ public class Viewer {
         }
         int option = getUserInputOption(0, songs.size() - 1);
         Song song = songs.get(option);
-        Song newSong = new Song(song.getTitle(), song.getArtist(), song.getAlbum());
+        Song newSong = new Song(song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre());
 
         System.out.printf("Please input the PlayList name: ");
         Scanner scanner = new Scanner(System.in);
@@ -747,6 +793,7 @@ public class Viewer {
         List<Song> songs = library.searchSongByTitle(title);
         if (songs.isEmpty()) {
             System.out.println("Error: Song does not exist");
+            showClosestSongs(library.fuzzySearchSongByTitle(title, SUGGESTION_LIMIT));
             return;
         }
 
@@ -824,7 +871,7 @@ public class Viewer {
         }
         int option = getUserInputOption(0, songs.size() - 1);
         Song song = songs.get(option);
-        Song newSong = new Song(song.getTitle(), song.getArtist(), song.getAlbum());
+        Song newSong = new Song(song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre());
         if (library.addSongToLibrary(newSong)) {
             System.out.println("Added song to library successfully.");
         }
@@ -853,7 +900,7 @@ public class Viewer {
         List<Song> songs = albums.get(option).getSongs();
         for (int i = 0; i < songs.size(); i++) {
             Song song = songs.get(i);
-            Song newSong = new Song(song.getTitle(), song.getArtist(), song.getAlbum());
+            Song newSong = new Song(song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre());
             library.addSongToLibrary(newSong);
         }
     }